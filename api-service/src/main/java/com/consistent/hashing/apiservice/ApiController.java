@@ -2,45 +2,122 @@ package com.consistent.hashing.apiservice;
 
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 public class ApiController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
     private final ProcessingService processingService;
     private final ZooKeeperRegistration registration;
+    private final MeterRegistry meterRegistry;
+    private final int maxBatchSize;
     private final Timer requestTimer;
 
     public ApiController(ProcessingService processingService,
                          ZooKeeperRegistration registration,
-                         MeterRegistry meterRegistry) {
+                         MeterRegistry meterRegistry,
+                         @Value("${processing.max-batch-size:1000}") int maxBatchSize) {
         this.processingService = processingService;
         this.registration = registration;
+        this.meterRegistry = meterRegistry;
+        this.maxBatchSize = maxBatchSize;
         this.requestTimer = Timer.builder("api.request.duration")
                 .tag("instance_id", String.valueOf(registration.getInstanceId()))
                 .publishPercentileHistogram(true)
                 .register(meterRegistry);
     }
 
+    /**
+     * Returns without holding a servlet thread: the response is written when the
+     * computation on the processing executor completes. {@code X-Cache} is
+     * {@code HIT} when the result was already cached, {@code STORE} when it was
+     * read back from the disk store, {@code MISS} when it was computed.
+     */
     @GetMapping("/api/process")
-    public ResponseEntity<ApiResponse> process(
+    public CompletableFuture<ResponseEntity<ApiResponse>> process(
             @RequestHeader("X-User-Id") String userId) {
-        return requestTimer.record(() -> {
-            long start = System.currentTimeMillis();
-            ProcessingService.UserResult result = processingService.process(userId);
-            long elapsed = System.currentTimeMillis() - start;
-
-            return ResponseEntity.ok(new ApiResponse(
-                    result.userId(),
-                    elapsed,
-                    UUID.randomUUID().toString(),
-                    registration.getInstanceId()));
+        Timer.Sample sample = Timer.start(meterRegistry);
+        long start = System.currentTimeMillis();
+        return processingService.serve(userId)
+                .thenApply(served -> ResponseEntity.ok()
+                        .header("X-Cache", switch (served.source()) {
+                            case CACHE -> "HIT";
+                            case STORE -> "STORE";
+                            case COMPUTED -> "MISS";
+                        })
+                        .body(toResponse(served.result(), start)))
+                .whenComplete((response, error) -> sample.stop(requestTimer));
+    }
+
+    /**
+     * Processes a JSON array of user IDs and streams one JSON object per line
+     * (NDJSON) as each result becomes available. Cold users are computed
+     * together in one batch.
+     */
+    @PostMapping("/api/process/batch")
+    public ResponseEntity<ResponseBodyEmitter> processBatch(@RequestBody List<String> userIds) {
+        if (userIds.size() > maxBatchSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Batch of " + userIds.size() + " exceeds limit of " + maxBatchSize);
+        }
+        long start = System.currentTimeMillis();
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+        CompletableFuture<?>[] lines = processingService.processBatch(userIds).values().stream()
+                .map(future -> future.thenAccept(result -> sendLine(emitter, toResponse(result, start))))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(lines).whenComplete((ignored, error) -> {
+            if (error != null) {
+                emitter.completeWithError(error);
+            } else {
+                emitter.complete();
+            }
         });
+        return ResponseEntity.ok().contentType(NDJSON).body(emitter);
+    }
+
+    private ApiResponse toResponse(ProcessingService.UserResult result, long start) {
+        return new ApiResponse(
+                result.userId(),
+                System.currentTimeMillis() - start,
+                UUID.randomUUID().toString(),
+                registration.getInstanceId());
+    }
+
+    private static void sendLine(ResponseBodyEmitter emitter, ApiResponse response) {
+        // Results complete on different threads; keep each object and its newline together
+        synchronized (emitter) {
+            try {
+                emitter.send(response, MediaType.APPLICATION_JSON);
+                emitter.send("\n", MediaType.TEXT_PLAIN);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<String> overloaded() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Processing capacity exhausted");
     }
 
     public record ApiResponse(String userId, long processingTimeMs,
@@ -0,0 +1,89 @@
+package com.consistent.hashing.apiservice;
+
+import com.consistent.hashing.common.HashRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+/**
+ * Internal endpoints for handing cached results over when ring ownership
+ * changes. The load balancer works out which hash ranges moved and asks each
+ * new owner to pull them from the previous owner. Replicas receive freshly
+ * computed results through {@code /internal/cache/import}.
+ * <p>
+ * A pull only fetches from an address in the {@link PeerRing}, so the
+ * endpoint cannot be used to make this instance call arbitrary hosts. An
+ * import must name its sender in {@value #SOURCE_HEADER}, which is checked the
+ * same way, so callers outside the fleet cannot seed cached results.
+ */
+@RestController
+public class CacheMigrationController {
+
+    /**
+     * Address ({@code host:port}) of the instance sending an import.
+     */
+    public static final String SOURCE_HEADER = "X-Cache-Source";
+
+    private static final Logger log = LoggerFactory.getLogger(CacheMigrationController.class);
+    private static final ParameterizedTypeReference<List<ProcessingService.UserResult>> RESULT_LIST =
+            new ParameterizedTypeReference<>() {};
+
+    private final ProcessingService processingService;
+    private final PeerRing peerRing;
+    private final RestClient restClient;
+
+    public CacheMigrationController(ProcessingService processingService, PeerRing peerRing,
+                                    RestClient.Builder restClientBuilder) {
+        this.processingService = processingService;
+        this.peerRing = peerRing;
+        this.restClient = restClientBuilder.build();
+    }
+
+    @PostMapping("/internal/cache/export")
+    public List<ProcessingService.UserResult> export(@RequestBody ExportRequest request) {
+        return processingService.export(request.ranges());
+    }
+
+    @PostMapping("/internal/cache/pull")
+    public PullResult pull(@RequestBody PullRequest request) {
+        requirePeer(request.source(), "pull");
+        List<ProcessingService.UserResult> results = restClient.post()
+                .uri("http://" + request.source() + "/internal/cache/export")
+                .body(new ExportRequest(request.ranges()))
+                .retrieve()
+                .body(RESULT_LIST);
+        int imported = results == null ? 0 : processingService.importResults(results);
+        log.info("Pulled {} cached results for {} ranges from {}",
+                imported, request.ranges().size(), request.source());
+        return new PullResult(imported);
+    }
+
+    @PostMapping("/internal/cache/import")
+    public PullResult importResults(@RequestHeader(value = SOURCE_HEADER, required = false) String source,
+                                    @RequestBody List<ProcessingService.UserResult> results) {
+        requirePeer(source, "import");
+        return new PullResult(processingService.importResults(results));
+    }
+
+    private void requirePeer(String source, String operation) {
+        if (source == null || !peerRing.isPeer(source)) {
+            log.warn("Rejected cache {} from unknown source {}", operation, source);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown source " + source);
+        }
+    }
+
+    public record ExportRequest(List<HashRange> ranges) {}
+
+    public record PullRequest(String source, List<HashRange> ranges) {}
+
+    public record PullResult(int imported) {}
+}
@@ -0,0 +1,304 @@
+package com.consistent.hashing.apiservice;
+
+import com.consistent.hashing.common.Murmur3;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Completed results in direct memory, for {@code cache.mode=compact}.
+ * <p>
+ * Results are written one after another into a fixed-size circular arena; once
+ * it is full, each new result overwrites the oldest ones, so eviction is FIFO by
+ * write time. A linear-probing table of primitive longs, also off-heap, maps the
+ * 64-bit hash of a user ID to the arena position of that user's latest record.
+ * Lookups compare the user ID stored in the record, so a hash collision is a
+ * miss, never another user's result.
+ * <p>
+ * A cached user costs its record (28 bytes plus the UTF-8 ID) and two index
+ * slots, instead of a String, a future, a record and cache nodes on the heap, and
+ * the collector never scans any of it.
+ */
+final class CompactResultCache {
+
+    // Record: total length, user ID hash, written-at millis, processing time, user ID in UTF-8
+    private static final int HEADER_BYTES = 4 + 8 + 8 + 8;
+    // Length of a record that pads the rest of the arena before wrapping
+    private static final int WRAP = -1;
+    private static final int SLOT_BYTES = 16;
+
+    private final ByteBuffer arena;
+    private final int capacity;
+    private final long expireAfterWriteMillis;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Guarded by lock. Positions are absolute and only grow; the arena offset is position % capacity
+    private long head;
+    private long tail;
+    private ByteBuffer slots;
+    private int mask;
+    private int usedSlots;
+    private int entries;
+
+    CompactResultCache(int arenaBytes, int expectedEntries, long expireAfterWriteMillis) {
+        this.capacity = Math.max(arenaBytes, 1024);
+        this.arena = ByteBuffer.allocateDirect(capacity);
+        this.expireAfterWriteMillis = expireAfterWriteMillis;
+        allocateSlots(Math.max(expectedEntries, 16) * 2);
+    }
+
+    /**
+     * The cached, unexpired result of {@code userId}, or {@code null}.
+     */
+    ProcessingService.UserResult get(String userId) {
+        byte[] id = userId.getBytes(StandardCharsets.UTF_8);
+        long hash = Murmur3.hash64(userId);
+        lock.readLock().lock();
+        try {
+            long position = find(hash);
+            if (position >= 0) {
+                int offset = offset(position);
+                if (arena.getInt(offset) == HEADER_BYTES + id.length && !expired(arena.getLong(offset + 12))
+                        && idEquals(offset, id)) {
+                    hits.increment();
+                    return new ProcessingService.UserResult(userId, arena.getLong(offset + 20));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches {@code result}, replacing any earlier result of the same user.
+     * Results too large for a quarter of the arena are not cached.
+     */
+    void put(ProcessingService.UserResult result) {
+        byte[] id = result.userId().getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_BYTES + id.length;
+        if (length > capacity / 4) {
+            return;
+        }
+        long hash = Murmur3.hash64(result.userId());
+        lock.writeLock().lock();
+        try {
+            int offset = offset(tail);
+            int padding = offset + length > capacity ? capacity - offset : 0;
+            evictUntil(tail + padding + length - capacity);
+            if (padding >= 4) {
+                arena.putInt(offset, WRAP);
+            }
+            tail += padding;
+            offset = offset(tail);
+            arena.putInt(offset, length)
+                    .putLong(offset + 4, hash)
+                    .putLong(offset + 12, System.currentTimeMillis())
+                    .putLong(offset + 20, result.processingTimeMs())
+                    .put(offset + HEADER_BYTES, id);
+            index(hash, tail);
+            tail += length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Whether {@code userId} has a cached, unexpired result; does not count as a get.
+     */
+    boolean contains(String userId) {
+        byte[] id = userId.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            long position = find(Murmur3.hash64(userId));
+            if (position < 0) {
+                return false;
+            }
+            int offset = offset(position);
+            return arena.getInt(offset) == HEADER_BYTES + id.length && !expired(arena.getLong(offset + 12))
+                    && idEquals(offset, id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Calls {@code action} with the ring hash and result of every cached,
+     * unexpired user, oldest first. Runs under the read lock, so {@code action}
+     * must be quick and must not call back into the cache.
+     */
+    void forEach(BiConsumer<Long, ProcessingService.UserResult> action) {
+        lock.readLock().lock();
+        try {
+            long position = head;
+            while (position < tail) {
+                int offset = offset(position);
+                int length = capacity - offset < 4 ? WRAP : arena.getInt(offset);
+                if (length == WRAP) {
+                    position += capacity - offset;
+                    continue;
+                }
+                long hash = arena.getLong(offset + 4);
+                if (find(hash) == position && !expired(arena.getLong(offset + 12))) {
+                    byte[] id = new byte[length - HEADER_BYTES];
+                    arena.get(offset + HEADER_BYTES, id);
+                    action.accept(hash, new ProcessingService.UserResult(
+                            new String(id, StandardCharsets.UTF_8), arena.getLong(offset + 20)));
+                }
+                position += length;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long size() {
+        return entries;
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Advances the head past whole records until it reaches {@code position}.
+     */
+    private void evictUntil(long position) {
+        while (head < position) {
+            int offset = offset(head);
+            int length = capacity - offset < 4 ? WRAP : arena.getInt(offset);
+            if (length == WRAP) {
+                head += capacity - offset;
+                continue;
+            }
+            // Only the indexed record of a user is an entry; replaced ones are just space
+            if (find(arena.getLong(offset + 4)) == head) {
+                entries--;
+                evictions.increment();
+            }
+            head += length;
+        }
+    }
+
+    private int offset(long position) {
+        return (int) (position % capacity);
+    }
+
+    private boolean expired(long writtenAt) {
+        return expireAfterWriteMillis > 0 && System.currentTimeMillis() - writtenAt >= expireAfterWriteMillis;
+    }
+
+    private boolean idEquals(int offset, byte[] id) {
+        for (int i = 0; i < id.length; i++) {
+            if (arena.get(offset + HEADER_BYTES + i) != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Slots hold a hash and position + 1; 0 is empty. Slots pointing before the head are stale
+
+    private long find(long hash) {
+        for (int slot = (int) Murmur3.fmix64(hash) & mask; ; slot = (slot + 1) & mask) {
+            long stored = slots.getLong(slot * SLOT_BYTES + 8);
+            if (stored == 0) {
+                return -1;
+            }
+            if (slots.getLong(slot * SLOT_BYTES) == hash) {
+                long position = stored - 1;
+                return position >= head ? position : -1;
+            }
+        }
+    }
+
+    private void index(long hash, long position) {
+        int reusable = -1;
+        for (int slot = (int) Murmur3.fmix64(hash) & mask; ; slot = (slot + 1) & mask) {
+            long stored = slots.getLong(slot * SLOT_BYTES + 8);
+            if (stored == 0) {
+                break;
+            }
+            if (slots.getLong(slot * SLOT_BYTES) == hash) {
+                if (stored - 1 < head) {
+                    entries++;
+                }
+                slots.putLong(slot * SLOT_BYTES + 8, position + 1);
+                return;
+            }
+            if (reusable < 0 && stored - 1 < head) {
+                reusable = slot;
+            }
+        }
+        if (reusable < 0) {
+            if ((usedSlots + 1) * 4 > (mask + 1) * 3) {
+                rehash();
+                index(hash, position);
+                return;
+            }
+            reusable = (int) Murmur3.fmix64(hash) & mask;
+            while (slots.getLong(reusable * SLOT_BYTES + 8) != 0) {
+                reusable = (reusable + 1) & mask;
+            }
+            usedSlots++;
+        }
+        slots.putLong(reusable * SLOT_BYTES, hash).putLong(reusable * SLOT_BYTES + 8, position + 1);
+        entries++;
+    }
+
+    /**
+     * Drops stale slots, doubling the table if live entries alone would fill half of it.
+     */
+    private void rehash() {
+        ByteBuffer old = slots;
+        int oldSlots = mask + 1;
+        int liveSlots = 0;
+        for (int slot = 0; slot < oldSlots; slot++) {
+            long stored = old.getLong(slot * SLOT_BYTES + 8);
+            if (stored != 0 && stored - 1 >= head) {
+                liveSlots++;
+            }
+        }
+        long[] live = new long[liveSlots * 2];
+        int n = 0;
+        for (int slot = 0; slot < oldSlots; slot++) {
+            long stored = old.getLong(slot * SLOT_BYTES + 8);
+            if (stored != 0 && stored - 1 >= head) {
+                live[n++] = old.getLong(slot * SLOT_BYTES);
+                live[n++] = stored;
+            }
+        }
+        allocateSlots(n > oldSlots / 2 ? oldSlots * 2 : oldSlots);
+        for (int i = 0; i < n; i += 2) {
+            int slot = (int) Murmur3.fmix64(live[i]) & mask;
+            while (slots.getLong(slot * SLOT_BYTES + 8) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots.putLong(slot * SLOT_BYTES, live[i]).putLong(slot * SLOT_BYTES + 8, live[i + 1]);
+        }
+        usedSlots = n / 2;
+    }
+
+    private void allocateSlots(int minimum) {
+        int count = Integer.highestOneBit(Math.max(minimum, 16) - 1) << 1;
+        slots = ByteBuffer.allocateDirect(count * SLOT_BYTES);
+        mask = count - 1;
+        usedSlots = 0;
+    }
+}
@@ -0,0 +1,137 @@
+package com.consistent.hashing.apiservice;
+
+import com.consistent.hashing.common.HashAlgorithm;
+import com.consistent.hashing.common.NodeLocator;
+import com.consistent.hashing.common.RegistrationPayload;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCache;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This instance's copy of the load balancer's lookup structure, built from the
+ * same ZooKeeper registrations with the same algorithm, virtual node count and
+ * weights. Both sides therefore agree on every key's preference list, which is
+ * what lets results be replicated to exactly the instances the load balancer
+ * falls back to.
+ * <p>
+ * It also answers which addresses belong to peers, so internal endpoints only
+ * talk to instances registered in ZooKeeper. A peer that deregistered stays
+ * known for {@code service.deregistration-grace-period}, while it still serves
+ * hand-off requests.
+ */
+@Component
+public class PeerRing {
+
+    private static final Logger log = LoggerFactory.getLogger(PeerRing.class);
+
+    private final CuratorFramework curator;
+    private final NodeLocator<String> ring;
+    // Address of each member by node key, and departure deadline of each recently departed address
+    private final Map<String, String> addresses = new ConcurrentHashMap<>();
+    private final Map<String, Long> departed = new ConcurrentHashMap<>();
+    private final long gracePeriodNanos;
+    private CuratorCache cache;
+
+    public PeerRing(CuratorFramework curator,
+                    @Value("${ring.algorithm:" + HashAlgorithm.DEFAULT_NAME + "}") String algorithm,
+                    @Value("${ring.virtual-nodes:160}") int virtualNodes,
+                    @Value("${service.deregistration-grace-period:2s}") Duration deregistrationGracePeriod) {
+        this.curator = curator;
+        this.ring = HashAlgorithm.fromName(algorithm).create(virtualNodes);
+        this.gracePeriodNanos = deregistrationGracePeriod.toNanos();
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = CuratorCache.build(curator, RegistrationPayload.SERVICE_PATH);
+        cache.listenable().addListener(CuratorCacheListener.builder()
+                .forCreatesAndChanges((previous, node) -> addPeer(node))
+                .forDeletes(this::removePeer)
+                .build());
+        cache.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    /**
+     * Addresses ({@code host:port}) of up to {@code count} instances for
+     * {@code key}, in the order the load balancer prefers them.
+     */
+    public List<String> preferenceList(String key, int count) {
+        return ring.getNodes(key, count);
+    }
+
+    /**
+     * Whether {@code address} ({@code host:port}) is a registered instance, or
+     * one that deregistered within the grace period.
+     */
+    public boolean isPeer(String address) {
+        if (addresses.containsValue(address)) {
+            return true;
+        }
+        Long deadline = departed.get(address);
+        if (deadline == null) {
+            return false;
+        }
+        if (System.nanoTime() - deadline < 0) {
+            return true;
+        }
+        departed.remove(address, deadline);
+        return false;
+    }
+
+    void addPeer(ChildData node) {
+        String nodeKey = RegistrationPayload.nodeKey(node.getPath());
+        if (nodeKey == null || node.getData() == null) {
+            return;
+        }
+        try {
+            RegistrationPayload payload = RegistrationPayload.parse(node.getData());
+            String address = payload.address();
+            ring.addNode(nodeKey, address, payload.ringWeight());
+            String previous = addresses.put(nodeKey, address);
+            if (previous != null && !previous.equals(address)) {
+                depart(previous);
+            }
+            departed.remove(address);
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring unreadable registration {}", node.getPath(), e);
+        }
+    }
+
+    void removePeer(ChildData node) {
+        String nodeKey = RegistrationPayload.nodeKey(node.getPath());
+        if (nodeKey != null) {
+            ring.removeNode(nodeKey);
+            String address = addresses.remove(nodeKey);
+            if (address != null) {
+                depart(address);
+            }
+        }
+    }
+
+    private void depart(String address) {
+        long now = System.nanoTime();
+        departed.put(address, now + gracePeriodNanos);
+        // Expired departures are only dropped when looked up, so prune them here too
+        departed.values().removeIf(deadline -> now - deadline >= 0);
+    }
+}
@@ -0,0 +1,38 @@
+package com.consistent.hashing.apiservice;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class ProcessingExecutorConfig {
+
+    /**
+     * Runs user computations. At most {@code max-concurrency} run at once and at
+     * most {@code queue-capacity} wait; beyond that submissions are rejected and
+     * the request fails fast with 503 instead of piling up.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService processingExecutor(
+            @Value("${processing.max-concurrency:64}") int maxConcurrency,
+            @Value("${processing.queue-capacity:1000}") int queueCapacity) {
+        ThreadFactory threadFactory = Thread.ofPlatform()
+                .name("processing-", 0)
+                .daemon(true)
+                .factory();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                maxConcurrency, maxConcurrency,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                threadFactory,
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
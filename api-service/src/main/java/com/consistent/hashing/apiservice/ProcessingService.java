@@ -1,35 +1,459 @@
 package com.consistent.hashing.apiservice;
 
+import com.consistent.hashing.common.ConsistentHashRing;
+import com.consistent.hashing.common.HashRange;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+/**
+ * Computes per-user results and caches them in a bounded Caffeine cache.
+ * <p>
+ * Concurrent requests for the same user share one in-flight future. Caffeine's
+ * W-TinyLFU policy decides what to keep once the cache is full, and futures that
+ * complete exceptionally are dropped so a failure is retried on the next request.
+ * Hit, miss, load and eviction counts are exported as {@code cache.*} meters with
+ * {@code cache=user-results}.
+ * <p>
+ * With {@code cache.store.enabled}, results also go to a {@link ResultStore} on
+ * disk, and a cache miss checks the store before computing, so a restart does
+ * not make every user pay the computation again.
+ * <p>
+ * With {@code cache.mode=compact}, completed results live off-heap in a
+ * {@link CompactResultCache} instead, and futures exist only for users being
+ * computed. That trades W-TinyLFU for FIFO eviction and drops
+ * {@code refresh-after-write}, for a fraction of the heap per cached user. The
+ * same {@code cache.*} meters are exported.
+ */
 @Service
 public class ProcessingService {
 
     private static final Logger log = LoggerFactory.getLogger(ProcessingService.class);
     private static final long PROCESSING_TIME_MS = 1000;
+    // Object headers, the record, the key String and cache entry overhead
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+    // Off-heap arena bytes budgeted per user in compact mode: a record with a short user ID
+    private static final int COMPACT_ENTRY_BYTES = 64;
 
-    private final ConcurrentHashMap<String, CompletableFuture<UserResult>> cache = new ConcurrentHashMap<>();
+    // Exactly one of cache and compact is set, by cache.mode
+    private final AsyncLoadingCache<String, UserResult> cache;
+    private final CompactResultCache compact;
+    private final Map<String, CompletableFuture<UserResult>> inFlight = new ConcurrentHashMap<>();
+    private final Executor processingExecutor;
+    private final ResultStore store;
+    private volatile Consumer<Collection<UserResult>> computedListener = results -> {};
+
+    public ProcessingService(
+            @Value("${cache.max-entries:100000}") long maxEntries,
+            @Value("${cache.max-bytes:0}") long maxBytes,
+            @Value("${cache.expire-after-write:1h}") Duration expireAfterWrite,
+            @Value("${cache.refresh-after-write:0s}") Duration refreshAfterWrite,
+            @Value("${cache.mode:caffeine}") String mode,
+            @Qualifier("processingExecutor") Executor processingExecutor,
+            ResultStore store,
+            MeterRegistry meterRegistry) {
+        this.store = store;
+        this.processingExecutor = processingExecutor;
+        if (parseCompact(mode)) {
+            long expected = maxBytes > 0 ? maxBytes / COMPACT_ENTRY_BYTES : maxEntries;
+            long arenaBytes = maxBytes > 0 ? maxBytes : maxEntries * COMPACT_ENTRY_BYTES;
+            this.compact = new CompactResultCache((int) Math.min(arenaBytes, Integer.MAX_VALUE),
+                    (int) Math.min(expected, Integer.MAX_VALUE / 4), expireAfterWrite.toMillis());
+            this.cache = null;
+            monitorCompact(meterRegistry);
+            return;
+        }
+        this.compact = null;
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .executor(processingExecutor)
+                .recordStats();
+        if (!expireAfterWrite.isZero()) {
+            builder.expireAfterWrite(expireAfterWrite);
+        }
+        if (!refreshAfterWrite.isZero()) {
+            // Serves the cached result while a fresh one is computed in the background
+            builder.refreshAfterWrite(refreshAfterWrite);
+        }
+        if (maxBytes > 0) {
+            builder.maximumWeight(maxBytes).weigher((String id, UserResult result) -> estimateSize(id));
+        } else {
+            builder.maximumSize(maxEntries);
+        }
+
+        // Loads run on the processing executor, never on the calling thread
+        this.cache = builder.buildAsync(new CacheLoader<String, UserResult>() {
+            @Override
+            public UserResult load(String id) {
+                return loadOne(id, () -> {});
+            }
+
+            @Override
+            public UserResult reload(String id, UserResult oldValue) {
+                // A refresh wants a new result, not the stored copy of the old one
+                return computeAndStore(id);
+            }
+
+            @Override
+            public Map<String, UserResult> loadAll(Set<? extends String> ids) {
+                return loadMany(ids);
+            }
+        });
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "user-results");
+    }
+
+    /**
+     * {@code caffeine} or {@code compact}.
+     */
+    static boolean parseCompact(String mode) {
+        return switch (mode.trim().toLowerCase(Locale.ROOT)) {
+            case "caffeine" -> false;
+            case "compact" -> true;
+            default -> throw new IllegalArgumentException("cache.mode must be 'caffeine' or 'compact': " + mode);
+        };
+    }
+
+    private void monitorCompact(MeterRegistry meterRegistry) {
+        Tags tags = Tags.of("cache", "user-results");
+        FunctionCounter.builder("cache.gets", compact, CompactResultCache::hitCount)
+                .tags(tags).tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("cache.gets", compact, CompactResultCache::missCount)
+                .tags(tags).tag("result", "miss").register(meterRegistry);
+        FunctionCounter.builder("cache.evictions", compact, CompactResultCache::evictionCount)
+                .tags(tags).register(meterRegistry);
+        Gauge.builder("cache.size", compact, CompactResultCache::size)
+                .tags(tags).register(meterRegistry);
+    }
+
+    private UserResult loadOne(String id, Runnable restored) {
+        UserResult stored = store.get(id);
+        if (stored == null) {
+            return computeAndStore(id);
+        }
+        restored.run();
+        return stored;
+    }
+
+    private Map<String, UserResult> loadMany(Collection<? extends String> ids) {
+        Map<String, UserResult> results = new HashMap<>();
+        Set<String> cold = new LinkedHashSet<>();
+        for (String id : ids) {
+            UserResult stored = store.get(id);
+            if (stored != null) {
+                results.put(id, stored);
+            } else {
+                cold.add(id);
+            }
+        }
+        if (cold.isEmpty()) {
+            return results;
+        }
+        log.info("Computing results for {} users in one batch, processing for {}ms",
+                cold.size(), PROCESSING_TIME_MS);
+        Map<String, UserResult> computed = computeBatch(cold);
+        computed.values().forEach(store::put);
+        computedListener.accept(computed.values());
+        results.putAll(computed);
+        return results;
+    }
+
+    private UserResult computeAndStore(String id) {
+        log.info("Computing result for user {}, processing for {}ms", id, PROCESSING_TIME_MS);
+        UserResult result = compute(id);
+        store.put(result);
+        computedListener.accept(List.of(result));
+        return result;
+    }
+
+    /**
+     * Registers a callback for results computed here, as opposed to imported.
+     * It runs on the processing thread, so it must hand any real work off.
+     */
+    public void onComputed(Consumer<Collection<UserResult>> listener) {
+        this.computedListener = listener;
+    }
 
     public UserResult process(String userId) {
-        CompletableFuture<UserResult> future = cache.computeIfAbsent(userId, id -> {
-            log.info("First request for user {}, processing for {}ms", id, PROCESSING_TIME_MS);
-            return CompletableFuture.supplyAsync(() -> {
-                try {
-                    Thread.sleep(PROCESSING_TIME_MS);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+        return processAsync(userId).join();
+    }
+
+    /**
+     * Returns the cached result, or a future for its computation on the
+     * processing executor. Completes exceptionally with a
+     * {@link RejectedExecutionException} when the executor is saturated.
+     */
+    public CompletableFuture<UserResult> processAsync(String userId) {
+        return processAsync(userId, () -> {});
+    }
+
+    /**
+     * Like {@link #processAsync}, and also tells where the result came from:
+     * {@link Source#STORE} when this call loaded it from the {@link ResultStore},
+     * {@link Source#CACHE} when it was already cached, {@link Source#COMPUTED}
+     * otherwise, including when it joins another request's load.
+     */
+    public CompletableFuture<Served> serve(String userId) {
+        AtomicBoolean restored = new AtomicBoolean();
+        CompletableFuture<UserResult> future = processAsync(userId, () -> restored.set(true));
+        boolean cached = future.isDone();
+        return future.thenApply(result -> new Served(result,
+                restored.get() ? Source.STORE : cached ? Source.CACHE : Source.COMPUTED));
+    }
+
+    private CompletableFuture<UserResult> processAsync(String userId, Runnable restored) {
+        if (compact != null) {
+            return processCompact(userId, restored);
+        }
+        CompletableFuture<UserResult> future;
+        try {
+            // Same as the cache loader, but lets this call see a store hit
+            future = cache.get(userId, (id, executor) ->
+                    CompletableFuture.supplyAsync(() -> loadOne(id, restored), executor));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // Caffeine drops failed futures too, but asynchronously; don't let a retry race it
+        return future.whenComplete((result, error) -> {
+            if (error != null) {
+                cache.asMap().remove(userId, future);
+            }
+        });
+    }
+
+    /**
+     * Futures for each distinct user in {@code userIds}, in request order. Cached
+     * and in-flight users reuse their existing future; all remaining users are
+     * computed together in a single batch.
+     */
+    public Map<String, CompletableFuture<UserResult>> processBatch(Collection<String> userIds) {
+        if (compact != null) {
+            return processBatchCompact(userIds);
+        }
+        Map<String, CompletableFuture<UserResult>> futures = new LinkedHashMap<>();
+        List<String> cold = new ArrayList<>();
+        for (String userId : userIds) {
+            if (!futures.containsKey(userId)) {
+                CompletableFuture<UserResult> existing = cache.getIfPresent(userId);
+                futures.put(userId, existing);
+                if (existing == null) {
+                    cold.add(userId);
+                }
+            }
+        }
+        if (!cold.isEmpty()) {
+            CompletableFuture<Map<String, UserResult>> batch;
+            try {
+                batch = cache.getAll(cold);
+            } catch (RejectedExecutionException e) {
+                batch = CompletableFuture.failedFuture(e);
+            }
+            for (String userId : cold) {
+                futures.put(userId, batch.thenApply(results -> results.get(userId)));
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Completed results for users whose ring hash falls in any of {@code ranges}.
+     * In-flight computations are skipped.
+     */
+    public List<UserResult> export(List<HashRange> ranges) {
+        List<UserResult> results = new ArrayList<>();
+        if (compact != null) {
+            // The cache keys results by the same hash the ring uses
+            compact.forEach((hash, result) -> {
+                if (inAny(ranges, hash)) {
+                    results.add(result);
                 }
-                return new UserResult(id, PROCESSING_TIME_MS);
             });
+            return results;
+        }
+        cache.synchronous().asMap().forEach((userId, result) -> {
+            if (inAny(ranges, ConsistentHashRing.hash(userId))) {
+                results.add(result);
+            }
         });
+        return results;
+    }
+
+    /**
+     * Seeds the cache with results computed elsewhere. Users already cached or
+     * being computed here are left alone.
+     *
+     * @return the number of results added
+     */
+    public int importResults(List<UserResult> results) {
+        int imported = 0;
+        for (UserResult result : results) {
+            if (compact != null) {
+                if (!inFlight.containsKey(result.userId()) && !compact.contains(result.userId())) {
+                    compact.put(result);
+                    store.put(result);
+                    imported++;
+                }
+                continue;
+            }
+            if (cache.asMap().putIfAbsent(result.userId(), CompletableFuture.completedFuture(result)) == null) {
+                store.put(result);
+                imported++;
+            }
+        }
+        return imported;
+    }
+
+    private static boolean inAny(List<HashRange> ranges, long hash) {
+        for (HashRange range : ranges) {
+            if (range.contains(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CompletableFuture<UserResult> processCompact(String userId, Runnable restored) {
+        UserResult cached = compact.get(userId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<UserResult> future = new CompletableFuture<>();
+        CompletableFuture<UserResult> existing = inFlight.putIfAbsent(userId, future);
+        if (existing != null) {
+            return existing;
+        }
+        // Completed between the lookup and registering; results are cached before their future is dropped
+        if (compact.contains(userId)) {
+            inFlight.remove(userId, future);
+            return processCompact(userId, restored);
+        }
+        try {
+            processingExecutor.execute(() -> complete(List.of(userId), Map.of(userId, future),
+                    () -> Map.of(userId, loadOne(userId, restored))));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(userId, future);
+            return CompletableFuture.failedFuture(e);
+        }
+        return future;
+    }
+
+    private Map<String, CompletableFuture<UserResult>> processBatchCompact(Collection<String> userIds) {
+        Map<String, CompletableFuture<UserResult>> futures = new LinkedHashMap<>();
+        Map<String, CompletableFuture<UserResult>> owned = new LinkedHashMap<>();
+        for (String userId : userIds) {
+            if (futures.containsKey(userId)) {
+                continue;
+            }
+            UserResult cached = compact.get(userId);
+            if (cached != null) {
+                futures.put(userId, CompletableFuture.completedFuture(cached));
+                continue;
+            }
+            CompletableFuture<UserResult> future = new CompletableFuture<>();
+            CompletableFuture<UserResult> existing = inFlight.putIfAbsent(userId, future);
+            futures.put(userId, existing != null ? existing : future);
+            if (existing == null) {
+                owned.put(userId, future);
+            }
+        }
+        if (owned.isEmpty()) {
+            return futures;
+        }
+        List<String> cold = List.copyOf(owned.keySet());
+        try {
+            processingExecutor.execute(() -> complete(cold, owned, () -> loadMany(cold)));
+        } catch (RejectedExecutionException e) {
+            owned.forEach((userId, future) -> {
+                inFlight.remove(userId, future);
+                future.completeExceptionally(e);
+            });
+        }
+        return futures;
+    }
+
+    /**
+     * Runs {@code load} and completes the futures of {@code userIds} with its
+     * results, caching each result before its in-flight future is dropped.
+     */
+    private void complete(List<String> userIds, Map<String, CompletableFuture<UserResult>> futures,
+                          Supplier<Map<String, UserResult>> load) {
+        Map<String, UserResult> results = null;
+        Throwable failure = null;
+        try {
+            results = load.get();
+        } catch (Throwable t) {
+            failure = t;
+        }
+        for (String userId : userIds) {
+            CompletableFuture<UserResult> future = futures.get(userId);
+            UserResult result = results == null ? null : results.get(userId);
+            if (result != null) {
+                compact.put(result);
+                inFlight.remove(userId, future);
+                future.complete(result);
+            } else {
+                inFlight.remove(userId, future);
+                future.completeExceptionally(failure != null ? failure
+                        : new IllegalStateException("No result computed for user " + userId));
+            }
+        }
+    }
 
-        return future.join();
+    UserResult compute(String userId) {
+        try {
+            Thread.sleep(PROCESSING_TIME_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new UserResult(userId, PROCESSING_TIME_MS);
+    }
+
+    Map<String, UserResult> computeBatch(Set<? extends String> userIds) {
+        try {
+            Thread.sleep(PROCESSING_TIME_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Map<String, UserResult> results = new HashMap<>();
+        for (String userId : userIds) {
+            results.put(userId, new UserResult(userId, PROCESSING_TIME_MS));
+        }
+        return results;
+    }
+
+    private static int estimateSize(String userId) {
+        return ENTRY_OVERHEAD_BYTES + 2 * userId.length();
     }
 
     public record UserResult(String userId, long processingTimeMs) {}
+
+    public record Served(UserResult result, Source source) {}
+
+    public enum Source { CACHE, STORE, COMPUTED }
 }
@@ -0,0 +1,94 @@
+package com.consistent.hashing.apiservice;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+
+import jakarta.annotation.PreDestroy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Copies every result computed here to the other instances among the user's
+ * first {@code replication.factor} in the ring's preference order. When the
+ * owner leaves or is ejected, the load balancer sends the user to the next of
+ * those instances, which then already has the result instead of recomputing it.
+ * <p>
+ * Replication is fire-and-forget on virtual threads: a slow or missing peer
+ * costs a warm copy, never the latency of the request that computed it.
+ */
+@Component
+public class ResultReplicator {
+
+    private static final Logger log = LoggerFactory.getLogger(ResultReplicator.class);
+
+    private final PeerRing peerRing;
+    private final ZooKeeperRegistration registration;
+    private final RestClient restClient;
+    private final int factor;
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter replicated;
+    private final Counter failed;
+
+    public ResultReplicator(ProcessingService processingService,
+                            PeerRing peerRing,
+                            ZooKeeperRegistration registration,
+                            RestClient.Builder restClientBuilder,
+                            MeterRegistry meterRegistry,
+                            @Value("${replication.factor:1}") int factor) {
+        this.peerRing = peerRing;
+        this.registration = registration;
+        this.restClient = restClientBuilder.build();
+        this.factor = factor;
+        this.replicated = Counter.builder("cache.replication.results").tag("outcome", "sent")
+                .register(meterRegistry);
+        this.failed = Counter.builder("cache.replication.results").tag("outcome", "failed")
+                .register(meterRegistry);
+        if (factor > 1) {
+            processingService.onComputed(this::replicate);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        senders.shutdown();
+    }
+
+    void replicate(Collection<ProcessingService.UserResult> results) {
+        String self = registration.getAddress();
+        Map<String, List<ProcessingService.UserResult>> byPeer = new LinkedHashMap<>();
+        for (ProcessingService.UserResult result : results) {
+            for (String peer : peerRing.preferenceList(result.userId(), factor)) {
+                if (!peer.equals(self)) {
+                    byPeer.computeIfAbsent(peer, p -> new ArrayList<>()).add(result);
+                }
+            }
+        }
+        byPeer.forEach((peer, batch) -> senders.execute(() -> send(self, peer, batch)));
+    }
+
+    private void send(String self, String peer, List<ProcessingService.UserResult> batch) {
+        try {
+            restClient.post()
+                    .uri("http://" + peer + "/internal/cache/import")
+                    .header(CacheMigrationController.SOURCE_HEADER, self)
+                    .body(batch)
+                    .retrieve()
+                    .toBodilessEntity();
+            replicated.increment(batch.size());
+        } catch (Exception e) {
+            failed.increment(batch.size());
+            log.debug("Failed to replicate {} results to {}", batch.size(), peer, e);
+        }
+    }
+}
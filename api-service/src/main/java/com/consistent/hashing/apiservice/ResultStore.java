@@ -0,0 +1,632 @@
+package com.consistent.hashing.apiservice;
+
+import com.consistent.hashing.common.Murmur3;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Optional on-disk tier under the result cache, so that a restarted instance
+ * serves its users' results instead of recomputing all of them.
+ * <p>
+ * Results are appended to a log file. An open-addressing hash table in direct
+ * (off-heap) memory maps the 64-bit hash of each user ID to the offset and size
+ * of the user's latest record. A lookup reads that one record and compares the
+ * stored user ID, so a hash collision is a miss, never another user's result.
+ * <p>
+ * On startup the index is rebuilt in the background by scanning the log in
+ * memory-mapped windows; lookups miss until the scan is done, and new results
+ * are appended meanwhile, up to a hard bound since compaction needs the full
+ * index. A torn record at the end of the log, left by a crash
+ * mid-write, ends the scan. The log is not fsynced, so results survive process
+ * restarts, not necessarily machine crashes.
+ * <p>
+ * The log is compacted in the background once it exceeds {@code max-bytes}, or
+ * once superseded records make up more than half of it. The latest unexpired
+ * record of each user is copied to a new file, oldest users first dropped until
+ * it fits half of {@code max-bytes}, and the new file atomically replaces the log.
+ * Reads and appends are only held up for the final swap, not for the copy.
+ */
+@Component
+public class ResultStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ResultStore.class);
+    private static final String LOG_FILE = "results.log";
+    private static final byte[] FILE_MAGIC = "CHRSLOG1".getBytes(StandardCharsets.US_ASCII);
+    // Record: length of the rest, CRC32C of the rest, written-at millis, processing time, user ID in UTF-8
+    private static final int RECORD_HEADER_BYTES = 4 + 4 + 8 + 8;
+    private static final int MAX_RECORD_BYTES = 0xFFFF;
+    private static final long MIN_COMPACTION_BYTES = 1 << 20;
+    // Appends stop here until the startup scan is done and compaction can run
+    private static final long MAX_LOG_BYTES = 1L << 30;
+    private static final long MAP_WINDOW_BYTES = 1L << 30;
+    private static final int LOAD_BATCH = 4096;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxBytes;
+    private final long expireAfterWriteMillis;
+    private final long mapWindowBytes;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService background;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter compactions;
+
+    // Guarded by lock
+    private FileChannel channel;
+    private long size;
+    private long garbage;
+    private OffHeapIndex index = new OffHeapIndex(1024);
+    private volatile boolean ready;
+
+    @Autowired
+    public ResultStore(@Value("${cache.store.enabled:false}") boolean enabled,
+                       @Value("${cache.store.directory:data}") Path directory,
+                       @Value("${cache.store.max-bytes:268435456}") long maxBytes,
+                       @Value("${cache.expire-after-write:1h}") Duration expireAfterWrite,
+                       MeterRegistry meterRegistry) {
+        this(enabled, directory, maxBytes, expireAfterWrite, meterRegistry, MAP_WINDOW_BYTES);
+    }
+
+    ResultStore(boolean enabled, Path directory, long maxBytes, Duration expireAfterWrite,
+                MeterRegistry meterRegistry, long mapWindowBytes) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.maxBytes = Math.min(Math.max(maxBytes, MIN_COMPACTION_BYTES), MAX_LOG_BYTES);
+        this.expireAfterWriteMillis = expireAfterWrite.toMillis();
+        this.mapWindowBytes = Math.max(mapWindowBytes, MAX_RECORD_BYTES);
+        this.background = enabled
+                ? Executors.newSingleThreadExecutor(Thread.ofPlatform().name("result-store").daemon().factory())
+                : null;
+        this.hits = Counter.builder("cache.store.reads").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("cache.store.reads").tag("result", "miss").register(meterRegistry);
+        this.compactions = Counter.builder("cache.store.compactions").register(meterRegistry);
+        Gauge.builder("cache.store.size", this, store -> store.size)
+                .description("Bytes in the result log, including superseded records")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("cache.store.entries", this, store -> store.index.size)
+                .description("Users with a result in the result log")
+                .register(meterRegistry);
+    }
+
+    /**
+     * A store that keeps nothing, for services without a disk tier.
+     */
+    static ResultStore disabled(MeterRegistry meterRegistry) {
+        return new ResultStore(false, Path.of(""), 0, Duration.ZERO, meterRegistry);
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(directory);
+        Path file = directory.resolve(LOG_FILE);
+        lock.writeLock().lock();
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            size = channel.size();
+            if (size < FILE_MAGIC.length) {
+                channel.truncate(0);
+                channel.write(ByteBuffer.wrap(FILE_MAGIC), 0);
+                size = FILE_MAGIC.length;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long scanEnd = size;
+        background.execute(() -> load(file, scanEnd));
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        background.shutdownNow();
+        lock.writeLock().lock();
+        try {
+            ready = false;
+            if (channel != null) {
+                channel.close();
+            }
+            index.free();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * The stored, unexpired result of {@code userId}, or {@code null}.
+     */
+    public ProcessingService.UserResult get(String userId) {
+        if (!enabled) {
+            return null;
+        }
+        if (!ready) {
+            misses.increment();
+            return null;
+        }
+        byte[] id = userId.getBytes(StandardCharsets.UTF_8);
+        ProcessingService.UserResult result = null;
+        lock.readLock().lock();
+        try {
+            long entry = index.get(Murmur3.hash64(userId));
+            if (entry != 0 && recordSize(entry) == RECORD_HEADER_BYTES + id.length) {
+                result = read(offset(entry), id);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to read the stored result of {}", userId, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        (result != null ? hits : misses).increment();
+        return result;
+    }
+
+    /**
+     * Appends {@code result}, superseding any earlier record of the same user.
+     */
+    public void put(ProcessingService.UserResult result) {
+        if (!enabled) {
+            return;
+        }
+        byte[] id = result.userId().getBytes(StandardCharsets.UTF_8);
+        if (RECORD_HEADER_BYTES + id.length > MAX_RECORD_BYTES) {
+            return;
+        }
+        ByteBuffer record = encode(id, System.currentTimeMillis(), result.processingTimeMs());
+        lock.writeLock().lock();
+        try {
+            if (channel == null || !channel.isOpen()) {
+                return;
+            }
+            if (!ready && size + record.capacity() > MAX_LOG_BYTES) {
+                // Only the memory cache keeps this result
+                return;
+            }
+            long offset = size;
+            writeFully(channel, record, offset);
+            size += record.capacity();
+            long previous = index.put(Murmur3.hash64(result.userId()), entry(offset, record.capacity()));
+            if (previous != 0) {
+                garbage += recordSize(previous);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to store the result of {}", result.userId(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        maybeCompact();
+    }
+
+    private void maybeCompact() {
+        boolean due = size > maxBytes || (size > MIN_COMPACTION_BYTES && garbage * 2 > size);
+        if (due && ready && compactionScheduled.compareAndSet(false, true)) {
+            background.execute(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    log.error("Result log compaction failed", e);
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Rebuilds the index from the records before {@code end}, the size of the log
+     * when it was opened. Records appended since are already indexed, and the
+     * index keeps the later of two offsets for a user, so the scan cannot
+     * resurrect a superseded result.
+     */
+    private void load(Path file, long end) {
+        long start = System.nanoTime();
+        long offset = FILE_MAGIC.length;
+        int records = 0;
+        // Indexed in batches, so appends wait for the lock once per batch, not once per record
+        long[] hashes = new long[LOAD_BATCH];
+        long[] entries = new long[LOAD_BATCH];
+        int pending = 0;
+        try (FileChannel reader = FileChannel.open(file, StandardOpenOption.READ)) {
+            // A single mapping cannot exceed 2 GiB, so the log is scanned one window at a time
+            long windowStart = 0;
+            long windowEnd = Math.min(end, mapWindowBytes);
+            MappedByteBuffer mapped = reader.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd);
+            if (!Arrays.equals(bytes(mapped, 0, FILE_MAGIC.length), FILE_MAGIC)) {
+                log.error("{} is not a result log; not loading it", file);
+                return;
+            }
+            while (offset + RECORD_HEADER_BYTES <= end) {
+                if (offset + MAX_RECORD_BYTES > windowEnd && windowEnd < end) {
+                    // Start the next window at this record, so no record straddles two
+                    windowStart = offset;
+                    windowEnd = Math.min(end, offset + mapWindowBytes);
+                    mapped = reader.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+                }
+                int at = (int) (offset - windowStart);
+                int length = mapped.getInt(at);
+                int recordSize = 8 + length;
+                if (length < RECORD_HEADER_BYTES - 8 || recordSize > MAX_RECORD_BYTES || offset + recordSize > end
+                        || !checksumMatches(mapped, at, length)) {
+                    log.warn("Result log ends in a torn record at offset {}; ignoring {} bytes",
+                            offset, end - offset);
+                    break;
+                }
+                byte[] id = bytes(mapped, at + RECORD_HEADER_BYTES, recordSize - RECORD_HEADER_BYTES);
+                hashes[pending] = Murmur3.hash64(new String(id, StandardCharsets.UTF_8));
+                entries[pending++] = entry(offset, recordSize);
+                if (pending == LOAD_BATCH) {
+                    if (!index(hashes, entries, pending)) {
+                        return;
+                    }
+                    pending = 0;
+                }
+                offset += recordSize;
+                records++;
+            }
+            if (!index(hashes, entries, pending)) {
+                return;
+            }
+        } catch (IOException e) {
+            log.error("Failed to load the result log {}", file, e);
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            // Whatever the scan could not read is dead space until the next compaction
+            garbage += end - offset;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Loaded {} stored results for {} users in {}ms", records, index.size,
+                (System.nanoTime() - start) / 1_000_000);
+        maybeCompact();
+    }
+
+    /**
+     * Adds {@code count} scanned records to the index under one lock;
+     * {@code false} if the store was closed meanwhile.
+     */
+    private boolean index(long[] hashes, long[] entries, int count) {
+        lock.writeLock().lock();
+        try {
+            if (!channel.isOpen()) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                garbage += index.putIfLater(hashes[i], entries[i]);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the latest unexpired record of each user to a new log. The copy runs
+     * without the lock, from a snapshot of the index, so reads and appends carry
+     * on meanwhile. Only the final step holds the write lock: it copies the
+     * records appended since the snapshot, which supersede any copied earlier
+     * record of the same user, and swaps the new log in.
+     */
+    synchronized void compact() throws IOException {
+        long start = System.nanoTime();
+        long[] live;
+        long snapshotSize;
+        FileChannel source;
+        lock.readLock().lock();
+        try {
+            if (channel == null || !channel.isOpen()) {
+                return;
+            }
+            live = index.entries();
+            snapshotSize = size;
+            // Only compaction replaces the channel, and positional reads need no lock
+            source = channel;
+        } finally {
+            lock.readLock().unlock();
+        }
+        // Entries encode the offset in their high bits, so this sorts them by age
+        Arrays.sort(live);
+
+        // Pick the records to keep from their headers alone, so none is held on the heap
+        long now = System.currentTimeMillis();
+        ByteBuffer writtenAt = ByteBuffer.allocate(Long.BYTES);
+        long total = FILE_MAGIC.length;
+        for (int i = 0; i < live.length; i++) {
+            writtenAt.clear();
+            readFully(source, writtenAt, offset(live[i]) + 8);
+            if (expired(writtenAt.getLong(0), now)) {
+                live[i] = 0;
+            } else {
+                total += recordSize(live[i]);
+            }
+        }
+        for (int i = 0; total > maxBytes / 2 && i < live.length; i++) {
+            if (live[i] != 0) {
+                total -= recordSize(live[i]);
+                live[i] = 0;
+            }
+        }
+
+        Path file = directory.resolve(LOG_FILE);
+        Path compacted = directory.resolve(LOG_FILE + ".compact");
+        OffHeapIndex rebuilt = new OffHeapIndex(Math.max(1024, live.length * 2));
+        ByteBuffer record = ByteBuffer.allocate(MAX_RECORD_BYTES);
+        boolean swapped = false;
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long offset = writeFully(out, ByteBuffer.wrap(FILE_MAGIC), 0);
+            for (long entry : live) {
+                if (entry != 0) {
+                    copy(source, entry, out, offset, rebuilt, record);
+                    offset += recordSize(entry);
+                }
+            }
+            out.force(true);
+
+            lock.writeLock().lock();
+            try {
+                if (!channel.isOpen()) {
+                    return;
+                }
+                // Appended since the snapshot; like any append, these are not fsynced
+                long superseded = 0;
+                for (long position = snapshotSize; position < size; ) {
+                    record.clear().limit(Integer.BYTES);
+                    readFully(channel, record, position);
+                    int recordSize = 8 + record.getInt(0);
+                    long previous = copy(channel, entry(position, recordSize), out, offset, rebuilt, record);
+                    superseded += previous == 0 ? 0 : recordSize(previous);
+                    offset += recordSize;
+                    position += recordSize;
+                }
+                channel.close();
+                try {
+                    Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    // Keep serving from the old log
+                    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    throw e;
+                }
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                long before = size;
+                size = offset;
+                garbage = superseded;
+                index.free();
+                index = rebuilt;
+                swapped = true;
+                compactions.increment();
+                log.info("Compacted the result log from {} to {} bytes, {} users kept, in {}ms",
+                        before, size, index.size, (System.nanoTime() - start) / 1_000_000);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            if (!swapped) {
+                rebuilt.free();
+                Files.deleteIfExists(compacted);
+            }
+        }
+    }
+
+    /**
+     * Copies the record of {@code entry} from {@code from} to {@code position} in
+     * {@code to} and indexes it in {@code index}. Returns the entry it replaced
+     * there, or 0.
+     */
+    private static long copy(FileChannel from, long entry, FileChannel to, long position, OffHeapIndex index,
+                             ByteBuffer buffer) throws IOException {
+        int recordSize = recordSize(entry);
+        buffer.clear().limit(recordSize);
+        readFully(from, buffer, offset(entry));
+        String userId = new String(buffer.array(), RECORD_HEADER_BYTES, recordSize - RECORD_HEADER_BYTES,
+                StandardCharsets.UTF_8);
+        writeFully(to, buffer.flip(), position);
+        return index.put(Murmur3.hash64(userId), entry(position, recordSize));
+    }
+
+    private ProcessingService.UserResult read(long offset, byte[] id) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + id.length);
+        readFully(channel, record, offset);
+        long writtenAt = record.getLong(8);
+        if (expired(writtenAt, System.currentTimeMillis())
+                || !Arrays.equals(record.array(), RECORD_HEADER_BYTES, record.capacity(), id, 0, id.length)) {
+            return null;
+        }
+        return new ProcessingService.UserResult(new String(id, StandardCharsets.UTF_8), record.getLong(16));
+    }
+
+    private boolean expired(long writtenAt, long now) {
+        return expireAfterWriteMillis > 0 && now - writtenAt >= expireAfterWriteMillis;
+    }
+
+    private static ByteBuffer encode(byte[] id, long writtenAt, long processingTimeMs) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + id.length);
+        record.putInt(record.capacity() - 8).putInt(0).putLong(writtenAt).putLong(processingTimeMs).put(id);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 8, record.capacity() - 8);
+        record.putInt(4, (int) crc.getValue());
+        return record.flip();
+    }
+
+    private static boolean checksumMatches(ByteBuffer mapped, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(mapped.slice(offset + 8, length));
+        return (int) crc.getValue() == mapped.getInt(offset + 4);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return bytes;
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Result log truncated at " + position);
+            }
+        }
+    }
+
+    // Index entries pack the record offset (high 48 bits) and size (low 16 bits); 0 is empty
+    private static long entry(long offset, int recordSize) {
+        return offset << 16 | recordSize;
+    }
+
+    private static long offset(long entry) {
+        return entry >>> 16;
+    }
+
+    private static int recordSize(long entry) {
+        return (int) (entry & 0xFFFF);
+    }
+
+    /**
+     * Linear-probing hash table from user ID hash to index entry, held in direct
+     * memory so a few million users cost no heap and no GC work.
+     */
+    private static final class OffHeapIndex {
+
+        private static final int SLOT_BYTES = 16;
+
+        private ByteBuffer slots;
+        private int mask;
+        int size;
+
+        OffHeapIndex(int capacity) {
+            int slotCount = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+            slots = ByteBuffer.allocateDirect(slotCount * SLOT_BYTES);
+            mask = slotCount - 1;
+        }
+
+        long get(long hash) {
+            for (int slot = (int) Murmur3.fmix64(hash) & mask; ; slot = (slot + 1) & mask) {
+                long entry = slots.getLong(slot * SLOT_BYTES + 8);
+                if (entry == 0 || slots.getLong(slot * SLOT_BYTES) == hash) {
+                    return entry;
+                }
+            }
+        }
+
+        /**
+         * Stores {@code entry} for {@code hash} and returns the entry it replaced, or 0.
+         */
+        long put(long hash, long entry) {
+            return put(hash, entry, false);
+        }
+
+        /**
+         * Like {@link #put}, but keeps an existing entry at a later offset. Returns
+         * the size of the record that is now superseded, or 0.
+         */
+        long putIfLater(long hash, long entry) {
+            long previous = put(hash, entry, true);
+            if (previous == 0) {
+                return 0;
+            }
+            return recordSize(offset(previous) > offset(entry) ? entry : previous);
+        }
+
+        private long put(long hash, long entry, boolean keepLater) {
+            if ((size + 1) * 2 > mask + 1) {
+                grow();
+            }
+            for (int slot = (int) Murmur3.fmix64(hash) & mask; ; slot = (slot + 1) & mask) {
+                int position = slot * SLOT_BYTES;
+                long existing = slots.getLong(position + 8);
+                if (existing == 0) {
+                    slots.putLong(position, hash).putLong(position + 8, entry);
+                    size++;
+                    return 0;
+                }
+                if (slots.getLong(position) == hash) {
+                    if (!keepLater || offset(existing) < offset(entry)) {
+                        slots.putLong(position + 8, entry);
+                    }
+                    return existing;
+                }
+            }
+        }
+
+        long[] entries() {
+            long[] entries = new long[size];
+            int n = 0;
+            for (int slot = 0; slot <= mask; slot++) {
+                long entry = slots.getLong(slot * SLOT_BYTES + 8);
+                if (entry != 0) {
+                    entries[n++] = entry;
+                }
+            }
+            return entries;
+        }
+
+        private void grow() {
+            ByteBuffer old = slots;
+            int oldSlots = mask + 1;
+            slots = ByteBuffer.allocateDirect(oldSlots * 2 * SLOT_BYTES);
+            mask = oldSlots * 2 - 1;
+            size = 0;
+            for (int slot = 0; slot < oldSlots; slot++) {
+                long entry = old.getLong(slot * SLOT_BYTES + 8);
+                if (entry != 0) {
+                    put(old.getLong(slot * SLOT_BYTES), entry, false);
+                }
+            }
+        }
+
+        void free() {
+            // Direct buffers are released when collected; dropping the reference is enough
+            slots = ByteBuffer.allocateDirect(0);
+            mask = 0;
+            size = 0;
+        }
+    }
+}
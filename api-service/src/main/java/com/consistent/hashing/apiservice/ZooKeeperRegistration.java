@@ -1,26 +1,34 @@
 package com.consistent.hashing.apiservice;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.consistent.hashing.common.RegistrationPayload;
+import com.consistent.hashing.common.ServiceInstance;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.SmartLifecycle;
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.regex.Pattern;
 
 @Component
 public class ZooKeeperRegistration implements SmartLifecycle {
 
     private static final Logger log = LoggerFactory.getLogger(ZooKeeperRegistration.class);
-    private static final String SERVICE_PATH = "/services/api/instance-";
+    private static final Pattern NODE_NAME = Pattern.compile("[A-Za-z0-9._-]*[A-Za-z._-][A-Za-z0-9._-]*");
 
     private final CuratorFramework curator;
     private final String host;
     private final int port;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final double weight;
+    private final Duration deregistrationGracePeriod;
+    private final boolean compact;
+    private final String nodeName;
 
     private volatile boolean running;
     private String createdPath;
@@ -29,45 +37,107 @@ public class ZooKeeperRegistration implements SmartLifecycle {
     public ZooKeeperRegistration(
             CuratorFramework curator,
             @Value("${service.host}") String host,
-            @Value("${server.port}") int port) {
+            @Value("${server.port}") int port,
+            @Value("${service.weight:1}") String weight,
+            @Value("${service.deregistration-grace-period:2s}") Duration deregistrationGracePeriod,
+            @Value("${service.registration-format:json}") String registrationFormat,
+            @Value("${service.node-name:}") String nodeName) {
         this.curator = curator;
         this.host = host;
         this.port = port;
+        this.weight = parseWeight(weight);
+        this.deregistrationGracePeriod = deregistrationGracePeriod;
+        this.compact = parseCompact(registrationFormat);
+        this.nodeName = parseNodeName(nodeName, host);
     }
 
     @Override
     public void start() {
         try {
             // Ensure parent path exists
-            if (curator.checkExists().forPath("/services/api") == null) {
-                curator.create().creatingParentsIfNeeded().forPath("/services/api");
+            if (curator.checkExists().forPath(RegistrationPayload.SERVICE_PATH) == null) {
+                curator.create().creatingParentsIfNeeded().forPath(RegistrationPayload.SERVICE_PATH);
             }
 
-            byte[] data = objectMapper.writeValueAsBytes(
-                    Map.of("host", host, "port", port));
+            RegistrationPayload payload = new RegistrationPayload(host, port, weight);
+            byte[] data = compact ? payload.encode() : payload.toJson();
 
-            createdPath = curator.create()
-                    .withMode(CreateMode.EPHEMERAL_SEQUENTIAL)
-                    .forPath(SERVICE_PATH, data);
-
-            // Extract sequential integer from path like /services/api/instance-0000000001
-            String seqStr = createdPath.substring(createdPath.lastIndexOf('-') + 1);
-            instanceId = Integer.parseInt(seqStr);
+            if (nodeName == null) {
+                createdPath = curator.create()
+                        .withMode(CreateMode.EPHEMERAL_SEQUENTIAL)
+                        .forPath(RegistrationPayload.SEQUENTIAL_PREFIX, data);
+                // Extract sequential integer from path like /services/api/instance-0000000001
+                instanceId = Integer.parseInt(createdPath.substring(createdPath.lastIndexOf('-') + 1));
+            } else {
+                createdPath = createNamed(RegistrationPayload.NAMED_PREFIX + nodeName, data);
+                instanceId = ServiceInstance.idFor(nodeName);
+            }
 
-            log.info("Registered in ZooKeeper: path={}, instanceId={}, address={}:{}",
-                    createdPath, instanceId, host, port);
+            log.info("Registered in ZooKeeper: path={}, instanceId={}, address={}:{}, weight={}",
+                    createdPath, instanceId, host, port, weight);
             running = true;
         } catch (Exception e) {
             throw new RuntimeException("Failed to register with ZooKeeper", e);
         }
     }
 
+    /**
+     * Creates the ephemeral node of a named instance. After a crash the node of
+     * the previous session lingers until that session expires; if it advertises
+     * our own address it is ours and is replaced at once, otherwise we wait for
+     * it to expire, and fail if it outlives the session timeout, since then
+     * another live instance holds the name.
+     */
+    private String createNamed(String path, byte[] data) throws Exception {
+        long deadline = System.nanoTime()
+                + Duration.ofMillis(curator.getZookeeperClient().getZooKeeper().getSessionTimeout()).toNanos();
+        while (true) {
+            try {
+                return curator.create().withMode(CreateMode.EPHEMERAL).forPath(path, data);
+            } catch (KeeperException.NodeExistsException e) {
+                Stat stat = new Stat();
+                byte[] existing;
+                try {
+                    existing = curator.getData().storingStatIn(stat).forPath(path);
+                } catch (KeeperException.NoNodeException gone) {
+                    continue;
+                }
+                if (getAddress().equals(address(existing))) {
+                    log.info("Replacing registration {} left by a previous session", path);
+                    try {
+                        curator.delete().withVersion(stat.getVersion()).forPath(path);
+                    } catch (KeeperException.NoNodeException | KeeperException.BadVersionException raced) {
+                        // Expired or rewritten meanwhile; try again
+                    }
+                } else if (System.nanoTime() - deadline > 0) {
+                    throw new IllegalStateException("service.node-name " + nodeName
+                            + " is registered by " + address(existing), e);
+                } else {
+                    log.info("Waiting for registration {} of {} to expire", path, address(existing));
+                    Thread.sleep(1000);
+                }
+            }
+        }
+    }
+
+    private static String address(byte[] data) {
+        try {
+            return RegistrationPayload.parse(data).address();
+        } catch (IllegalArgumentException e) {
+            return "an unreadable registration";
+        }
+    }
+
     @Override
     public void stop() {
         try {
             if (createdPath != null) {
                 curator.delete().forPath(createdPath);
+                // Keep serving while the new owners pull our cached results
+                Thread.sleep(deregistrationGracePeriod.toMillis());
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             log.warn("Failed to deregister from ZooKeeper", e);
         }
@@ -82,4 +152,61 @@ public class ZooKeeperRegistration implements SmartLifecycle {
     public int getInstanceId() {
         return instanceId;
     }
+
+    /**
+     * {@code host:port} as registered, which is how peers address this instance.
+     */
+    public String getAddress() {
+        return host + ":" + port;
+    }
+
+    /**
+     * A stable node name keeps an instance on the same ring points across
+     * restarts; {@code hostname} uses {@code service.host}. Blank keeps
+     * sequential registration, with a new ID and new points on every start.
+     * Names are unique across the fleet and are not purely numeric, so they
+     * never clash with sequence numbers.
+     */
+    static String parseNodeName(String nodeName, String host) {
+        String name = nodeName.trim();
+        if (name.isEmpty()) {
+            return null;
+        }
+        if ("hostname".equalsIgnoreCase(name)) {
+            name = host;
+        }
+        if (!NODE_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException(
+                    "service.node-name must be letters, digits, '.', '_' or '-', not only digits: " + name);
+        }
+        return name;
+    }
+
+    /**
+     * {@code json} (readable in zkCli) or {@code compact}, the binary form of
+     * {@link RegistrationPayload}. Upgrade the readers before switching.
+     */
+    static boolean parseCompact(String format) {
+        return switch (format.trim().toLowerCase(Locale.ROOT)) {
+            case "json" -> false;
+            case "compact" -> true;
+            default -> throw new IllegalArgumentException(
+                    "service.registration-format must be 'json' or 'compact': " + format);
+        };
+    }
+
+    /**
+     * {@code cpus} advertises the processors available to this JVM, so a machine
+     * twice the size gets twice the keys; anything else must be a positive number.
+     */
+    static double parseWeight(String weight) {
+        if ("cpus".equalsIgnoreCase(weight.trim())) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        double value = Double.parseDouble(weight.trim());
+        if (!(value > 0) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("service.weight must be positive or 'cpus': " + weight);
+        }
+        return value;
+    }
 }
@@ -6,12 +6,26 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(MockitoExtension.class)
@@ -28,21 +42,100 @@ class ApiControllerTest {
     @BeforeEach
     void setUp() {
         ApiController controller = new ApiController(
-                processingService, zooKeeperRegistration, new SimpleMeterRegistry());
+                processingService, zooKeeperRegistration, new SimpleMeterRegistry(), 3);
         mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
     }
 
     @Test
     void processReturnsCorrectResponseFields() throws Exception {
-        when(processingService.process("user-1"))
-                .thenReturn(new ProcessingService.UserResult("user-1", 1000));
+        when(processingService.serve("user-1")).thenReturn(CompletableFuture.completedFuture(
+                new ProcessingService.Served(new ProcessingService.UserResult("user-1", 1000), ProcessingService.Source.CACHE)));
         when(zooKeeperRegistration.getInstanceId()).thenReturn(42);
 
-        mockMvc.perform(get("/api/process").header("X-User-Id", "user-1"))
+        MvcResult pending = mockMvc.perform(get("/api/process").header("X-User-Id", "user-1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(pending))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.userId").value("user-1"))
                 .andExpect(jsonPath("$.processingTimeMs").isNumber())
                 .andExpect(jsonPath("$.correlationId").isString())
-                .andExpect(jsonPath("$.instanceId").value(42));
+                .andExpect(jsonPath("$.instanceId").value(42))
+                .andExpect(header().string("X-Cache", "HIT"));
+    }
+
+    @Test
+    void computedResultIsACacheMiss() throws Exception {
+        CompletableFuture<ProcessingService.Served> computing = new CompletableFuture<>();
+        when(processingService.serve("user-1")).thenReturn(computing);
+
+        MvcResult pending = mockMvc.perform(get("/api/process").header("X-User-Id", "user-1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        computing.complete(new ProcessingService.Served(
+                new ProcessingService.UserResult("user-1", 1000), ProcessingService.Source.COMPUTED));
+
+        mockMvc.perform(asyncDispatch(pending))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Cache", "MISS"));
+    }
+
+    @Test
+    void resultReadFromTheStoreIsReportedAsStore() throws Exception {
+        when(processingService.serve("user-1")).thenReturn(CompletableFuture.completedFuture(
+                new ProcessingService.Served(new ProcessingService.UserResult("user-1", 1000), ProcessingService.Source.STORE)));
+
+        MvcResult pending = mockMvc.perform(get("/api/process").header("X-User-Id", "user-1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(pending))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Cache", "STORE"));
+    }
+
+    @Test
+    void saturatedExecutorReturns503() throws Exception {
+        when(processingService.serve("user-1"))
+                .thenReturn(CompletableFuture.failedFuture(new RejectedExecutionException("full")));
+
+        MvcResult pending = mockMvc.perform(get("/api/process").header("X-User-Id", "user-1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(pending))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    void batchStreamsOneJsonLinePerUser() throws Exception {
+        Map<String, CompletableFuture<ProcessingService.UserResult>> futures = new LinkedHashMap<>();
+        futures.put("a", CompletableFuture.completedFuture(new ProcessingService.UserResult("a", 1000)));
+        futures.put("b", CompletableFuture.completedFuture(new ProcessingService.UserResult("b", 1000)));
+        when(processingService.processBatch(List.of("a", "b", "a"))).thenReturn(futures);
+        when(zooKeeperRegistration.getInstanceId()).thenReturn(42);
+
+        MvcResult pending = mockMvc.perform(post("/api/process/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"a\",\"b\",\"a\"]"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String body = mockMvc.perform(asyncDispatch(pending))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+        assertThat(body.split("\n"))
+                .hasSize(2)
+                .allSatisfy(line -> assertThat(line).startsWith("{").contains("\"instanceId\":42"));
+    }
+
+    @Test
+    void oversizedBatchIsRejected() throws Exception {
+        mockMvc.perform(post("/api/process/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"a\",\"b\",\"c\",\"d\"]"))
+                .andExpect(status().isBadRequest());
     }
 }
@@ -0,0 +1,111 @@
+package com.consistent.hashing.apiservice;
+
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.client.RestClient;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(MockitoExtension.class)
+class CacheMigrationControllerTest {
+
+    private static final String PULL = "{\"source\":\"%s\",\"ranges\":[{\"start\":0,\"end\":0}]}";
+
+    @Mock
+    private ProcessingService processingService;
+
+    private final PeerRing peerRing = new PeerRing(null, "ring", 16, Duration.ofMinutes(1));
+    private MockRestServiceServer upstream;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        RestClient.Builder restClient = RestClient.builder();
+        upstream = MockRestServiceServer.bindTo(restClient).build();
+        mockMvc = MockMvcBuilders.standaloneSetup(
+                new CacheMigrationController(processingService, peerRing, restClient)).build();
+        peerRing.addPeer(registration(1, "api-1"));
+    }
+
+    @Test
+    void pullFromUnknownSourceIsRejected() throws Exception {
+        mockMvc.perform(post("/internal/cache/pull")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(PULL.formatted("169.254.169.254:80")))
+                .andExpect(status().isBadRequest());
+
+        upstream.verify();
+        verify(processingService, never()).importResults(any());
+    }
+
+    @Test
+    void pullFromDepartingPeerIsAllowedWithinTheGracePeriod() throws Exception {
+        peerRing.removePeer(registration(1, "api-1"));
+        upstream.expect(requestTo("http://api-1:8081/internal/cache/export"))
+                .andRespond(withSuccess("[{\"userId\":\"a\",\"processingTimeMs\":1000}]", MediaType.APPLICATION_JSON));
+        when(processingService.importResults(any())).thenReturn(1);
+
+        mockMvc.perform(post("/internal/cache/pull")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(PULL.formatted("api-1:8081")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(1));
+
+        upstream.verify();
+        verify(processingService).importResults(List.of(new ProcessingService.UserResult("a", 1000)));
+    }
+
+    @Test
+    void importFromNonPeerIsRejected() throws Exception {
+        mockMvc.perform(post("/internal/cache/import")
+                        .header(CacheMigrationController.SOURCE_HEADER, "attacker:8081")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"userId\":\"a\",\"processingTimeMs\":1000}]"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/internal/cache/import")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"userId\":\"a\",\"processingTimeMs\":1000}]"))
+                .andExpect(status().isBadRequest());
+
+        verify(processingService, never()).importResults(any());
+    }
+
+    @Test
+    void importFromPeerIsApplied() throws Exception {
+        when(processingService.importResults(any())).thenReturn(1);
+
+        mockMvc.perform(post("/internal/cache/import")
+                        .header(CacheMigrationController.SOURCE_HEADER, "api-1:8081")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"userId\":\"a\",\"processingTimeMs\":1000}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(1));
+
+        verify(processingService).importResults(List.of(new ProcessingService.UserResult("a", 1000)));
+    }
+
+    private static ChildData registration(int id, String host) {
+        byte[] data = ("{\"host\":\"" + host + "\",\"port\":8081}").getBytes(StandardCharsets.UTF_8);
+        return new ChildData(String.format("/services/api/instance-%010d", id), null, data);
+    }
+}
@@ -0,0 +1,61 @@
+package com.consistent.hashing.apiservice;
+
+import com.consistent.hashing.common.ConsistentHashRing;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompactResultCacheTest {
+
+    @Test
+    void returnsTheLatestResultOfEachUser() {
+        CompactResultCache cache = new CompactResultCache(4096, 16, 0);
+
+        cache.put(new ProcessingService.UserResult("user-1", 1000));
+        cache.put(new ProcessingService.UserResult("user-2", 1000));
+        cache.put(new ProcessingService.UserResult("user-1", 1200));
+
+        assertThat(cache.get("user-1")).isEqualTo(new ProcessingService.UserResult("user-1", 1200));
+        assertThat(cache.get("user-2")).isNotNull();
+        assertThat(cache.get("user-3")).isNull();
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.hitCount()).isEqualTo(2);
+        assertThat(cache.missCount()).isEqualTo(1);
+    }
+
+    @Test
+    void evictsTheOldestResultsAcrossWrapArounds() {
+        CompactResultCache cache = new CompactResultCache(1024, 16, 0);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new ProcessingService.UserResult("user-" + i, i));
+        }
+
+        // Records of this size fit about 1024 / 36 at a time
+        assertThat(cache.get("user-999")).isEqualTo(new ProcessingService.UserResult("user-999", 999));
+        assertThat(cache.get("user-980")).isNotNull();
+        assertThat(cache.get("user-900")).isNull();
+        assertThat(cache.size()).isBetween(20L, 30L);
+        assertThat(cache.evictionCount()).isEqualTo(1000 - cache.size());
+
+        Map<Long, String> seen = new HashMap<>();
+        cache.forEach((hash, result) -> seen.put(hash, result.userId()));
+        assertThat(seen).hasSize((int) cache.size());
+        seen.forEach((hash, userId) -> assertThat(ConsistentHashRing.hash(userId)).isEqualTo(hash));
+    }
+
+    @Test
+    void expiredResultsAreMisses() throws InterruptedException {
+        CompactResultCache cache = new CompactResultCache(4096, 16, 50);
+        cache.put(new ProcessingService.UserResult("user-1", 1000));
+        assertThat(cache.contains("user-1")).isTrue();
+
+        Thread.sleep(100);
+
+        assertThat(cache.get("user-1")).isNull();
+        assertThat(cache.contains("user-1")).isFalse();
+    }
+}
@@ -1,15 +1,33 @@
 package com.consistent.hashing.apiservice;
 
+import com.consistent.hashing.common.ConsistentHashRing;
+import com.consistent.hashing.common.HashRange;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class ProcessingServiceTest {
 
@@ -17,7 +35,12 @@ class ProcessingServiceTest {
 
     @BeforeEach
     void setUp() {
-        service = new ProcessingService();
+        service = newService(1000, new SimpleMeterRegistry());
+    }
+
+    private static ProcessingService newService(long maxEntries, MeterRegistry meterRegistry) {
+        return new ProcessingService(maxEntries, 0, Duration.ofHours(1), Duration.ZERO, "caffeine",
+                Executors.newCachedThreadPool(), ResultStore.disabled(meterRegistry), meterRegistry);
     }
 
     @Test
@@ -88,4 +111,184 @@ class ProcessingServiceTest {
 
         executor.shutdown();
     }
+
+    @Test
+    void failedComputationIsNotCached() {
+        AtomicInteger attempts = new AtomicInteger();
+        ProcessingService flaky = new ProcessingService(1000, 0, Duration.ofHours(1), Duration.ZERO, "caffeine",
+                Executors.newCachedThreadPool(), ResultStore.disabled(new SimpleMeterRegistry()),
+                new SimpleMeterRegistry()) {
+            @Override
+            UserResult compute(String userId) {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new IllegalStateException("transient");
+                }
+                return new UserResult(userId, 0);
+            }
+        };
+
+        assertThatThrownBy(() -> flaky.process("user-f")).isInstanceOf(CompletionException.class);
+        assertThat(flaky.process("user-f").userId()).isEqualTo("user-f");
+        assertThat(attempts.get()).isEqualTo(2);
+    }
+
+    @Test
+    void cacheMetricsAreExported() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ProcessingService monitored = newService(1000, registry);
+
+        monitored.process("user-m");
+        monitored.process("user-m");
+
+        assertThat(registry.get("cache.gets").tag("cache", "user-results").tag("result", "hit")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.gets").tag("cache", "user-results").tag("result", "miss")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(registry.find("cache.evictions").tag("cache", "user-results").functionCounter())
+                .isNotNull();
+    }
+
+    @Test
+    void storedResultsAreServedAfterARestart(@TempDir Path directory) throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ResultStore store = new ResultStore(true, directory, 1 << 20, Duration.ofHours(1), registry);
+        store.open();
+        awaitReady(store);
+        newService(1000, store).process("user-restart");
+        store.close();
+
+        ResultStore reopened = new ResultStore(true, directory, 1 << 20, Duration.ofHours(1), registry);
+        reopened.open();
+        awaitReady(reopened);
+        long start = System.currentTimeMillis();
+        ProcessingService restarted = newService(1000, reopened);
+        ProcessingService.Served served = restarted.serve("user-restart").join();
+
+        assertThat(System.currentTimeMillis() - start).isLessThan(500);
+        assertThat(served.result().userId()).isEqualTo("user-restart");
+        assertThat(served.source()).isEqualTo(ProcessingService.Source.STORE);
+        assertThat(restarted.serve("user-restart").join().source()).isEqualTo(ProcessingService.Source.CACHE);
+        assertThat(restarted.serve("user-new").join().source()).isEqualTo(ProcessingService.Source.COMPUTED);
+        reopened.close();
+    }
+
+    private static ProcessingService newService(long maxEntries, ResultStore store) {
+        return new ProcessingService(maxEntries, 0, Duration.ofHours(1), Duration.ZERO, "caffeine",
+                Executors.newCachedThreadPool(), store, new SimpleMeterRegistry());
+    }
+
+    private static void awaitReady(ResultStore store) throws InterruptedException {
+        for (int i = 0; i < 500 && !store.isReady(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(store.isReady()).isTrue();
+    }
+
+    @Test
+    void compactModeServesCachedResultsAndSharesComputations() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ProcessingService compact = new ProcessingService(1000, 0, Duration.ofHours(1), Duration.ZERO, "compact",
+                Executors.newCachedThreadPool(), ResultStore.disabled(registry), registry);
+
+        CompletableFuture<ProcessingService.UserResult> first = compact.processAsync("user-c");
+        assertThat(compact.processAsync("user-c")).isSameAs(first);
+        first.join();
+        long start = System.currentTimeMillis();
+        assertThat(compact.process("user-c").userId()).isEqualTo("user-c");
+        assertThat(System.currentTimeMillis() - start).isLessThan(100);
+
+        Map<String, CompletableFuture<ProcessingService.UserResult>> batch =
+                compact.processBatch(List.of("user-c", "user-d", "user-e"));
+        assertThat(batch.get("user-c")).isCompleted();
+        assertThat(batch.get("user-e").join().userId()).isEqualTo("user-e");
+
+        assertThat(compact.importResults(List.of(new ProcessingService.UserResult("user-c", 1),
+                new ProcessingService.UserResult("user-f", 1)))).isEqualTo(1);
+        assertThat(compact.export(List.of(new HashRange(0, 0)))).extracting(ProcessingService.UserResult::userId)
+                .containsExactlyInAnyOrder("user-c", "user-d", "user-e", "user-f");
+        assertThat(registry.get("cache.gets").tag("cache", "user-results").tag("result", "hit")
+                .functionCounter().count()).isGreaterThanOrEqualTo(2);
+        assertThat(registry.get("cache.size").tag("cache", "user-results").gauge().value()).isEqualTo(4);
+    }
+
+    @Test
+    void processAsyncDoesNotBlockCaller() {
+        long start = System.currentTimeMillis();
+        CompletableFuture<ProcessingService.UserResult> future = service.processAsync("user-async");
+        assertThat(System.currentTimeMillis() - start).isLessThan(500);
+
+        assertThat(future.join().userId()).isEqualTo("user-async");
+    }
+
+    @Test
+    void saturatedExecutorFailsFast() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new ThreadPoolExecutor.AbortPolicy());
+        ProcessingService bounded = new ProcessingService(1000, 0, Duration.ofHours(1), Duration.ZERO, "caffeine",
+                executor, ResultStore.disabled(new SimpleMeterRegistry()), new SimpleMeterRegistry());
+
+        bounded.processAsync("busy-user");
+        assertThat(bounded.processAsync("other-user"))
+                .failsWithin(Duration.ofSeconds(1))
+                .withThrowableOfType(ExecutionException.class)
+                .withRootCauseInstanceOf(RejectedExecutionException.class);
+
+        executor.shutdownNow();
+    }
+
+    @Test
+    void exportReturnsOnlyResultsInRequestedRanges() {
+        service.importResults(List.of(
+                new ProcessingService.UserResult("user-x", 1000),
+                new ProcessingService.UserResult("user-y", 1000)));
+        long hashX = ConsistentHashRing.hash("user-x");
+
+        List<ProcessingService.UserResult> exported = service.export(List.of(new HashRange(hashX - 1, hashX)));
+
+        assertThat(exported).extracting(ProcessingService.UserResult::userId).containsExactly("user-x");
+    }
+
+    @Test
+    void importedResultsAreServedWithoutRecompute() {
+        int imported = service.importResults(List.of(new ProcessingService.UserResult("warm-user", 1000)));
+
+        long start = System.currentTimeMillis();
+        ProcessingService.UserResult result = service.process("warm-user");
+
+        assertThat(imported).isEqualTo(1);
+        assertThat(System.currentTimeMillis() - start).isLessThan(100);
+        assertThat(result.userId()).isEqualTo("warm-user");
+        assertThat(service.importResults(List.of(new ProcessingService.UserResult("warm-user", 1)))).isZero();
+    }
+
+    @Test
+    void computedResultsAreReportedButImportedOnesAreNot() {
+        List<ProcessingService.UserResult> computed = new CopyOnWriteArrayList<>();
+        service.onComputed(computed::addAll);
+        service.importResults(List.of(new ProcessingService.UserResult("warm-user", 1000)));
+
+        service.process("warm-user");
+        service.process("cold-user");
+        service.processBatch(List.of("batch-a", "batch-b")).values().forEach(CompletableFuture::join);
+
+        assertThat(computed).extracting(ProcessingService.UserResult::userId)
+                .containsExactlyInAnyOrder("cold-user", "batch-a", "batch-b");
+    }
+
+    @Test
+    void batchComputesColdUsersTogetherAndReusesCachedOnes() {
+        service.process("batch-warm");
+
+        long start = System.currentTimeMillis();
+        Map<String, CompletableFuture<ProcessingService.UserResult>> futures =
+                service.processBatch(List.of("batch-warm", "batch-1", "batch-2", "batch-3", "batch-1"));
+        CompletableFuture.allOf(futures.values().toArray(CompletableFuture[]::new)).join();
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertThat(futures).containsOnlyKeys("batch-warm", "batch-1", "batch-2", "batch-3");
+        assertThat(futures.get("batch-2").join().userId()).isEqualTo("batch-2");
+        // One batched computation, not three sequential ones
+        assertThat(elapsed).isBetween(900L, 1900L);
+        assertThat(service.processAsync("batch-3")).isCompleted();
+    }
 }
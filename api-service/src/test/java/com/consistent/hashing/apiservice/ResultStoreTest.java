@@ -0,0 +1,158 @@
+package com.consistent.hashing.apiservice;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResultStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<ResultStore> opened = new ArrayList<>();
+    private SimpleMeterRegistry registry;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (ResultStore store : opened) {
+            store.close();
+        }
+    }
+
+    @Test
+    void resultsSurviveReopening() throws Exception {
+        ResultStore store = open(Duration.ofHours(1));
+        store.put(new ProcessingService.UserResult("user-1", 1000));
+        store.put(new ProcessingService.UserResult("user-2", 1000));
+        store.put(new ProcessingService.UserResult("user-1", 1200));
+        store.close();
+
+        ResultStore reopened = open(Duration.ofHours(1));
+
+        assertThat(reopened.get("user-1")).isEqualTo(new ProcessingService.UserResult("user-1", 1200));
+        assertThat(reopened.get("user-2")).isNotNull();
+        assertThat(reopened.get("user-3")).isNull();
+        assertThat(registry.get("cache.store.entries").gauge().value()).isEqualTo(2);
+        assertThat(registry.get("cache.store.reads").tag("result", "hit").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void logLargerThanOneMappingWindowIsLoaded() throws Exception {
+        ResultStore store = open(Duration.ofHours(1));
+        for (int i = 0; i < 20_000; i++) {
+            store.put(new ProcessingService.UserResult("user-" + i, i));
+        }
+        store.close();
+
+        registry = new SimpleMeterRegistry();
+        ResultStore reopened = new ResultStore(true, directory, 1 << 30, Duration.ofHours(1), registry, 1 << 18);
+        opened.add(reopened);
+        reopened.open();
+        awaitReady(reopened);
+
+        assertThat(Files.size(directory.resolve("results.log"))).isGreaterThan(2L << 18);
+        assertThat(registry.get("cache.store.entries").gauge().value()).isEqualTo(20_000);
+        assertThat(reopened.get("user-0")).isEqualTo(new ProcessingService.UserResult("user-0", 0));
+        assertThat(reopened.get("user-19999")).isEqualTo(new ProcessingService.UserResult("user-19999", 19_999));
+    }
+
+    @Test
+    void expiredResultsAreNotServed() throws Exception {
+        ResultStore store = open(Duration.ofMillis(50));
+        store.put(new ProcessingService.UserResult("user-1", 1000));
+        assertThat(store.get("user-1")).isNotNull();
+
+        Thread.sleep(100);
+
+        assertThat(store.get("user-1")).isNull();
+    }
+
+    @Test
+    void tornTailIsSkippedAndTheLogStaysWritable() throws Exception {
+        ResultStore store = open(Duration.ofHours(1));
+        store.put(new ProcessingService.UserResult("user-1", 1000));
+        store.close();
+        Files.write(directory.resolve("results.log"), new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        ResultStore reopened = open(Duration.ofHours(1));
+        reopened.put(new ProcessingService.UserResult("user-2", 1000));
+
+        assertThat(reopened.get("user-1")).isNotNull();
+        assertThat(reopened.get("user-2")).isNotNull();
+    }
+
+    @Test
+    void compactionDropsSupersededAndOldestRecords() throws Exception {
+        ResultStore store = open(Duration.ofHours(1));
+        for (int i = 0; i < 50_000; i++) {
+            store.put(new ProcessingService.UserResult("user-" + i, 1000));
+        }
+        // Puts past max-bytes already compact in the background; a final pass makes the bound exact
+        store.compact();
+
+        assertThat(Files.size(directory.resolve("results.log"))).isLessThanOrEqualTo(1 << 19);
+        assertThat(store.get("user-49999")).isNotNull();
+        assertThat(store.get("user-0")).isNull();
+        assertThat(registry.get("cache.store.compactions").counter().count()).isGreaterThanOrEqualTo(1);
+
+        store.close();
+        assertThat(open(Duration.ofHours(1)).get("user-49999")).isNotNull();
+    }
+
+    @Test
+    void resultsStoredDuringCompactionAreKept() throws Exception {
+        ResultStore store = open(Duration.ofHours(1));
+        for (int i = 0; i < 5_000; i++) {
+            store.put(new ProcessingService.UserResult("user-" + i, 1000));
+        }
+
+        Thread compaction = Thread.ofPlatform().start(() -> {
+            try {
+                store.compact();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        for (int i = 0; i < 2_000; i++) {
+            store.put(new ProcessingService.UserResult("user-" + i, 2000));
+            assertThat(store.get("user-" + i)).isNotNull();
+        }
+        compaction.join();
+
+        assertThat(registry.get("cache.store.compactions").counter().count()).isEqualTo(1);
+        for (int i = 0; i < 5_000; i++) {
+            assertThat(store.get("user-" + i).processingTimeMs()).isEqualTo(i < 2_000 ? 2000 : 1000);
+        }
+        store.close();
+        assertThat(open(Duration.ofHours(1)).get("user-1999").processingTimeMs()).isEqualTo(2000);
+    }
+
+    private ResultStore open(Duration expireAfterWrite) throws Exception {
+        registry = new SimpleMeterRegistry();
+        ResultStore store = new ResultStore(true, directory, 1 << 20, expireAfterWrite, registry);
+        store.open();
+        opened.add(store);
+        awaitReady(store);
+        return store;
+    }
+
+    private static void awaitReady(ResultStore store) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!store.isReady() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(store.isReady()).isTrue();
+    }
+}
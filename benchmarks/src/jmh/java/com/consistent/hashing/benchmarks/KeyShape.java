@@ -0,0 +1,48 @@
+package com.consistent.hashing.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Shapes of user IDs seen in practice, from the test client's small numeric IDs
+ * to long composite keys that span several hash blocks.
+ */
+public enum KeyShape {
+
+    NUMERIC {
+        @Override
+        String key(Random random, int i) {
+            return String.valueOf(i);
+        }
+    },
+    UUID {
+        @Override
+        String key(Random random, int i) {
+            return new java.util.UUID(random.nextLong(), random.nextLong()).toString();
+        }
+    },
+    LONG {
+        @Override
+        String key(Random random, int i) {
+            return "tenant-" + random.nextInt(1000) + "/region-eu-west-" + random.nextInt(4)
+                    + "/account-" + Long.toHexString(random.nextLong())
+                    + "/user-" + Long.toHexString(random.nextLong()) + "-" + i;
+        }
+    };
+
+    abstract String key(Random random, int i);
+
+    /**
+     * A power-of-two sized key set, so callers can cycle through it with a mask.
+     */
+    String[] keys(int count) {
+        if (Integer.bitCount(count) != 1) {
+            throw new IllegalArgumentException("count must be a power of two: " + count);
+        }
+        Random random = new Random(42);
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = key(random, i);
+        }
+        return keys;
+    }
+}
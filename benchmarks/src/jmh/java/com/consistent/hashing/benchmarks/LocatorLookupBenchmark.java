@@ -0,0 +1,53 @@
+package com.consistent.hashing.benchmarks;
+
+import com.consistent.hashing.common.HashAlgorithm;
+import com.consistent.hashing.common.NodeLocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup latency of every {@link HashAlgorithm} at the default virtual-node count,
+ * so algorithms can be compared on the same keys and ring sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LocatorLookupBenchmark {
+
+    private static final int KEY_COUNT = 1 << 16;
+
+    @Param({"RING", "JUMP", "RENDEZVOUS", "MAGLEV", "BOUNDED_LOAD"})
+    HashAlgorithm algorithm;
+
+    @Param({"3", "10", "100", "1000"})
+    int nodes;
+
+    @Param({"NUMERIC", "UUID"})
+    KeyShape keyShape;
+
+    NodeLocator<String> locator;
+    String[] keys;
+    int next;
+
+    @Setup
+    public void setUp() {
+        locator = algorithm.create(160);
+        for (int n = 0; n < nodes; n++) {
+            locator.addNode(String.valueOf(n), "node-" + n);
+        }
+        keys = keyShape.keys(KEY_COUNT);
+    }
+
+    @Benchmark
+    public String getNode() {
+        return locator.getNode(keys[next++ & (KEY_COUNT - 1)]);
+    }
+}
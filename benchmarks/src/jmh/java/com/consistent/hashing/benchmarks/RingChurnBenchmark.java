@@ -0,0 +1,84 @@
+package com.consistent.hashing.benchmarks;
+
+import com.consistent.hashing.common.ConsistentHashRing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of membership changes: {@code addNode}/{@code removeNode} on their own,
+ * and the lookup latency readers see while a writer churns the ring.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RingChurnBenchmark {
+
+    private static final int KEY_COUNT = 1 << 16;
+
+    @Param({"3", "10", "100", "1000"})
+    int nodes;
+
+    @Param({"40", "160"})
+    int virtualNodes;
+
+    ConsistentHashRing<String> ring;
+    String[] keys;
+    boolean present;
+
+    @Setup
+    public void setUp() {
+        ring = new ConsistentHashRing<>(virtualNodes);
+        for (int n = 0; n < nodes; n++) {
+            ring.addNode(String.valueOf(n), "node-" + n);
+        }
+        keys = KeyShape.NUMERIC.keys(KEY_COUNT);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    /**
+     * One membership flip: the extra node joins if absent, leaves if present.
+     */
+    @Benchmark
+    @Group("churnOnly")
+    @GroupThreads(1)
+    public void addOrRemove() {
+        flip();
+    }
+
+    @Benchmark
+    @Group("readersDuringChurn")
+    @GroupThreads(1)
+    public void writer() {
+        flip();
+    }
+
+    @Benchmark
+    @Group("readersDuringChurn")
+    @GroupThreads(3)
+    public String reader(Cursor cursor) {
+        return ring.getNode(keys[cursor.next++ & (KEY_COUNT - 1)]);
+    }
+
+    private void flip() {
+        if (present) {
+            ring.removeNode("churn");
+        } else {
+            ring.addNode("churn", "node-churn");
+        }
+        present = !present;
+    }
+}
@@ -0,0 +1,77 @@
+package com.consistent.hashing.benchmarks;
+
+import com.consistent.hashing.common.ConsistentHashRing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ConsistentHashRing#getNode} latency across ring sizes, virtual-node
+ * counts, key shapes and reader thread counts.
+ * <p>
+ * Run a slice with e.g.
+ * {@code java -jar benchmarks/build/libs/benchmarks-*-jmh.jar RingLookup -p nodes=100}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RingLookupBenchmark {
+
+    private static final int KEY_COUNT = 1 << 16;
+
+    @Param({"3", "10", "100", "1000"})
+    int nodes;
+
+    @Param({"1", "40", "160", "500"})
+    int virtualNodes;
+
+    @Param({"NUMERIC", "UUID", "LONG"})
+    KeyShape keyShape;
+
+    ConsistentHashRing<String> ring;
+    String[] keys;
+
+    @Setup
+    public void setUp() {
+        ring = new ConsistentHashRing<>(virtualNodes);
+        for (int n = 0; n < nodes; n++) {
+            ring.addNode(String.valueOf(n), "node-" + n);
+        }
+        keys = keyShape.keys(KEY_COUNT);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        String nextKey(String[] keys) {
+            return keys[next++ & (keys.length - 1)];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String getNode(Cursor cursor) {
+        return ring.getNode(cursor.nextKey(keys));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String getNode4Threads(Cursor cursor) {
+        return ring.getNode(cursor.nextKey(keys));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String getNodeAllCores(Cursor cursor) {
+        return ring.getNode(cursor.nextKey(keys));
+    }
+}
@@ -0,0 +1,79 @@
+package com.consistent.hashing.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Base for locators that rebuild an immutable lookup structure from the full
+ * member list on every change. Members are kept in a deterministic order, so
+ * every load balancer that sees the same membership builds the same structure
+ * regardless of the order events arrived in.
+ */
+abstract class AbstractNodeLocator<T> implements NodeLocator<T> {
+
+    /**
+     * Shorter keys first, then lexicographic. Numeric sequence IDs therefore sort
+     * numerically, which keeps newly registered instances at the end.
+     */
+    static final Comparator<String> NODE_KEY_ORDER =
+            Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
+
+    // Guarded by this
+    private final TreeMap<String, WeightedNode<T>> members = new TreeMap<>(NODE_KEY_ORDER);
+
+    @Override
+    public void addNode(String nodeKey, T node) {
+        addNode(nodeKey, node, 1.0);
+    }
+
+    @Override
+    public synchronized void addNode(String nodeKey, T node, double weight) {
+        NodeLocator.checkWeight(weight);
+        members.put(nodeKey, new WeightedNode<>(node, weight));
+        publish();
+    }
+
+    @Override
+    public synchronized void removeNode(String nodeKey) {
+        if (members.remove(nodeKey) != null) {
+            publish();
+        }
+    }
+
+    @Override
+    public synchronized void apply(Map<String, WeightedNode<T>> added, Collection<String> removed) {
+        added.values().forEach(member -> NodeLocator.checkWeight(member.weight()));
+        boolean changed = false;
+        for (String nodeKey : removed) {
+            changed |= members.remove(nodeKey) != null;
+        }
+        for (Map.Entry<String, WeightedNode<T>> entry : added.entrySet()) {
+            changed |= !entry.getValue().equals(members.put(entry.getKey(), entry.getValue()));
+        }
+        if (changed) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        List<String> keys = new ArrayList<>(members.size());
+        List<T> nodes = new ArrayList<>(members.size());
+        double[] weights = new double[members.size()];
+        for (Map.Entry<String, WeightedNode<T>> entry : members.entrySet()) {
+            weights[keys.size()] = entry.getValue().weight();
+            keys.add(entry.getKey());
+            nodes.add(entry.getValue().node());
+        }
+        rebuild(keys, nodes, weights);
+    }
+
+    /**
+     * Builds and publishes a new lookup structure. Called with the monitor held,
+     * with keys, nodes and weights in {@link #NODE_KEY_ORDER}.
+     */
+    protected abstract void rebuild(List<String> keys, List<T> nodes, double[] weights);
+}
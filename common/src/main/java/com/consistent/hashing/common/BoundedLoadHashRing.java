@@ -0,0 +1,220 @@
+package com.consistent.hashing.common;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Consistent hashing with bounded loads (Mirrokni, Thorup and Zadimoghaddam).
+ * <p>
+ * Keys are placed on a {@link ConsistentHashRing}, but a node only accepts a key
+ * while its load is below {@code ceil(loadFactor * (totalLoad + 1) * w / W)},
+ * where {@code w} is its weight and {@code W} the total weight (for equal weights,
+ * {@code ceil(loadFactor * (totalLoad + 1) / n)}). A full
+ * node passes the key on clockwise, so no node exceeds the mean by more than the
+ * factor while most keys still land on their ring owner.
+ * <p>
+ * Load is whatever the caller counts with {@link #acquire} and
+ * {@link #release}. {@link #getNode} only reads it.
+ */
+public class BoundedLoadHashRing<T> implements NodeLocator<T> {
+
+    public static final double DEFAULT_LOAD_FACTOR = 1.25;
+
+    private final ConsistentHashRing<T> ring;
+    private final double loadFactor;
+    private final Map<String, T> members = new ConcurrentHashMap<>();
+    private final Map<T, AtomicInteger> loads = new ConcurrentHashMap<>();
+    // Guarded by this for writes
+    private final Map<T, Double> weights = new ConcurrentHashMap<>();
+    private volatile double totalWeight;
+    private final AtomicInteger totalLoad = new AtomicInteger();
+
+    public BoundedLoadHashRing() {
+        this(ConsistentHashRing.DEFAULT_VIRTUAL_NODES, DEFAULT_LOAD_FACTOR);
+    }
+
+    public BoundedLoadHashRing(int virtualNodes, double loadFactor) {
+        if (loadFactor < 1.0) {
+            throw new IllegalArgumentException("loadFactor must be at least 1.0: " + loadFactor);
+        }
+        this.ring = new ConsistentHashRing<>(virtualNodes);
+        this.loadFactor = loadFactor;
+    }
+
+    @Override
+    public void addNode(String nodeKey, T node) {
+        addNode(nodeKey, node, 1.0);
+    }
+
+    @Override
+    public synchronized void addNode(String nodeKey, T node, double weight) {
+        NodeLocator.checkWeight(weight);
+        T previous = members.put(nodeKey, node);
+        if (previous != null && !previous.equals(node)) {
+            dropLoad(previous);
+        }
+        loads.putIfAbsent(node, new AtomicInteger());
+        weights.put(node, weight);
+        totalWeight = sumWeights();
+        ring.addNode(nodeKey, node, weight);
+    }
+
+    @Override
+    public synchronized void apply(Map<String, WeightedNode<T>> added, Collection<String> removed) {
+        added.values().forEach(member -> NodeLocator.checkWeight(member.weight()));
+        for (String nodeKey : removed) {
+            // Keys that are also added are replaced below, like addNode would
+            T node = added.containsKey(nodeKey) ? null : members.remove(nodeKey);
+            if (node != null) {
+                dropLoad(node);
+            }
+        }
+        added.forEach((nodeKey, member) -> {
+            T previous = members.put(nodeKey, member.node());
+            if (previous != null && !previous.equals(member.node())) {
+                dropLoad(previous);
+            }
+            loads.putIfAbsent(member.node(), new AtomicInteger());
+            weights.put(member.node(), member.weight());
+        });
+        totalWeight = sumWeights();
+        ring.apply(added, removed);
+    }
+
+    @Override
+    public synchronized void removeNode(String nodeKey) {
+        T node = members.remove(nodeKey);
+        if (node != null) {
+            ring.removeNode(nodeKey);
+            dropLoad(node);
+            totalWeight = sumWeights();
+        }
+    }
+
+    @Override
+    public T getNode(String key) {
+        int n = ring.size();
+        if (n == 0) {
+            return null;
+        }
+        double share = share(totalLoad.get());
+        T node = ring.getNode(key, candidate -> load(candidate) < capacity(share, candidate));
+        // Loads can move between reading the total and walking the ring; fall back to the owner
+        return node != null ? node : ring.getNode(key);
+    }
+
+    /**
+     * Like {@link #getNode}, but only considers nodes accepted by {@code filter}.
+     * Returns {@code null} if the filter accepts none.
+     */
+    public T getNode(String key, Predicate<? super T> filter) {
+        int n = ring.size();
+        if (n == 0) {
+            return null;
+        }
+        double share = share(totalLoad.get());
+        T node = ring.getNode(key, candidate -> filter.test(candidate) && load(candidate) < capacity(share, candidate));
+        return node != null ? node : ring.getNode(key, filter);
+    }
+
+    /**
+     * Ring preference order, ignoring load.
+     */
+    @Override
+    public int getNodes(String key, T[] out) {
+        return ring.getNodes(key, out);
+    }
+
+    /**
+     * Picks the node for {@code key} like {@link #getNode} and counts one unit of
+     * load against it. Every successful call must be paired with {@link #release}.
+     */
+    public T acquire(String key) {
+        return acquired(getNode(key));
+    }
+
+    /**
+     * Acquires like {@link #acquire}, restricted to nodes accepted by {@code filter}.
+     */
+    public T acquire(String key, Predicate<? super T> filter) {
+        return acquired(getNode(key, filter));
+    }
+
+    /**
+     * Counts one unit of load against {@code node}, chosen by the caller, for
+     * example from {@link #getNodes}. Pair with {@link #release}.
+     */
+    public T acquireNode(T node) {
+        return acquired(node);
+    }
+
+    public void release(T node) {
+        AtomicInteger load = loads.get(node);
+        if (load != null && load.getAndUpdate(v -> v > 0 ? v - 1 : 0) > 0) {
+            totalLoad.decrementAndGet();
+        }
+    }
+
+    public int load(T node) {
+        AtomicInteger load = loads.get(node);
+        return load == null ? 0 : load.get();
+    }
+
+    @Override
+    public int size() {
+        return ring.size();
+    }
+
+    /**
+     * Ring ownership, ignoring load. Overflowing keys are routed elsewhere only
+     * while their owner is busy.
+     */
+    public RingSnapshot<T> snapshot() {
+        return ring.snapshot();
+    }
+
+    public double getLoadFactor() {
+        return loadFactor;
+    }
+
+    /**
+     * Allowed load per unit of weight.
+     */
+    private double share(int total) {
+        return loadFactor * (total + 1) / totalWeight;
+    }
+
+    private long capacity(double share, T node) {
+        return (long) Math.ceil(share * weights.getOrDefault(node, 1.0));
+    }
+
+    private double sumWeights() {
+        double sum = 0;
+        for (T node : members.values()) {
+            sum += weights.getOrDefault(node, 1.0);
+        }
+        return sum;
+    }
+
+    private T acquired(T node) {
+        if (node != null) {
+            AtomicInteger load = loads.get(node);
+            if (load != null) {
+                load.incrementAndGet();
+                totalLoad.incrementAndGet();
+            }
+        }
+        return node;
+    }
+
+    private void dropLoad(T node) {
+        weights.remove(node);
+        AtomicInteger load = loads.remove(node);
+        if (load != null) {
+            totalLoad.addAndGet(-load.get());
+        }
+    }
+}
@@ -1,62 +1,347 @@
 package com.consistent.hashing.common;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
-public class ConsistentHashRing<T> {
+/**
+ * Consistent hash ring over the full 64-bit hash space.
+ * <p>
+ * Each node is placed at {@code virtualNodes} points, or that many times its
+ * weight, hashed from {@code nodeKey + "#" + i} with {@link Murmur3}. Because
+ * point {@code i} of a node is the same at any weight, changing a weight only
+ * adds or removes the points past the smaller count. Keys are hashed the same
+ * way and owned by the first point clockwise, so a membership change only moves
+ * roughly {@code 1/N} of the keys.
+ * <p>
+ * The ring holds about {@link #MAX_POINTS} points at most, since every node
+ * keeps at least one. Past that, every node's count is scaled down by the same
+ * factor, so shares stay proportional to weight however large the weights are.
+ * <p>
+ * The ring is copy-on-write: writers serialize on the ring and publish a new
+ * immutable {@link RingSnapshot} of sorted point hashes and their owners
+ * through a volatile field. {@link #getNode} takes no lock and allocates nothing.
+ */
+public class ConsistentHashRing<T> implements NodeLocator<T> {
 
-    private final TreeMap<Integer, T> ring = new TreeMap<>();
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+    public static final int MAX_POINTS = 1 << 20;
 
+    private final int virtualNodes;
+    private final int maxPoints;
+    // Points actually owned by each node, sorted; guarded by this
+    private final Map<String, long[]> points = new HashMap<>();
+    // Guarded by this
+    private final Map<String, WeightedNode<T>> weighted = new HashMap<>();
+    private double pointScale = 1.0;
+    private volatile RingSnapshot<T> snapshot = RingSnapshot.empty();
+
+    public ConsistentHashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(int virtualNodes) {
+        this(virtualNodes, MAX_POINTS);
+    }
+
+    ConsistentHashRing(int virtualNodes, int maxPoints) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be positive: " + virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+        this.maxPoints = maxPoints;
+    }
+
+    @Override
     public void addNode(String nodeKey, T node) {
-        int id = Integer.parseInt(nodeKey);
-        lock.writeLock().lock();
-        try {
-            ring.put(id, node);
-        } finally {
-            lock.writeLock().unlock();
+        addNode(nodeKey, node, 1.0);
+    }
+
+    @Override
+    public synchronized void addNode(String nodeKey, T node, double weight) {
+        apply(Map.of(nodeKey, new WeightedNode<>(node, weight)), List.of());
+    }
+
+    /**
+     * Merges the points of all added nodes into the ring in one pass, so a batch
+     * costs about as much as a single change. If two new points collide, the
+     * node with the smaller key wins, so every ring given the same batch agrees.
+     */
+    @Override
+    public synchronized void apply(Map<String, WeightedNode<T>> added, Collection<String> removed) {
+        added.values().forEach(member -> NodeLocator.checkWeight(member.weight()));
+        removed.forEach(weighted::remove);
+        weighted.putAll(added);
+        double scale = pointScale(weighted.values());
+        if (scale != pointScale) {
+            // Every count changes, so every node is re-placed; point i stays put, so only tails move
+            pointScale = scale;
+            added = new HashMap<>(weighted);
+        }
+        int members = added.size();
+        String[] keys = new String[members];
+        Object[] nodes = new Object[members];
+        int[] counts = new int[members];
+        int total = 0;
+        int m = 0;
+        for (Map.Entry<String, WeightedNode<T>> entry : added.entrySet()) {
+            keys[m] = entry.getKey();
+            nodes[m] = entry.getValue().node();
+            counts[m] = pointCount(entry.getValue().weight());
+            total += counts[m++];
+        }
+
+        // Points leaving the ring: those of removed nodes and the old points of replaced ones
+        List<long[]> leaving = new ArrayList<>();
+        for (String nodeKey : removed) {
+            if (!added.containsKey(nodeKey)) {
+                leaving.add(points.remove(nodeKey));
+            }
         }
+        for (String nodeKey : keys) {
+            leaving.add(points.remove(nodeKey));
+        }
+        RingSnapshot<T> base = without(snapshot, concatSorted(leaving));
+
+        long[] candidates = new long[total];
+        int[] candidateOwner = new int[total];
+        int c = 0;
+        for (int member = 0; member < members; member++) {
+            for (int i = 0; i < counts[member]; i++) {
+                candidates[c] = pointHash(keys[member], i);
+                candidateOwner[c++] = member;
+            }
+        }
+        Integer[] order = new Integer[total];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> candidates[i])
+                .thenComparing(i -> keys[candidateOwner[i]]));
+
+        long[] hashes = new long[base.hashes.length + total];
+        Object[] owners = new Object[hashes.length];
+        long[][] owned = new long[members][];
+        int[] ownedCount = new int[members];
+        for (int member = 0; member < members; member++) {
+            owned[member] = new long[counts[member]];
+        }
+        int k = 0;
+        int i = 0;
+        int j = 0;
+        while (i < base.hashes.length || j < total) {
+            if (j == total || (i < base.hashes.length && base.hashes[i] <= candidates[order[j]])) {
+                hashes[k] = base.hashes[i];
+                owners[k++] = base.nodes[i++];
+            } else {
+                long point = candidates[order[j]];
+                int member = candidateOwner[order[j++]];
+                // A 64-bit collision is vanishingly rare; the point already on the ring wins
+                if (k == 0 || hashes[k - 1] != point) {
+                    hashes[k] = point;
+                    owners[k++] = nodes[member];
+                    owned[member][ownedCount[member]++] = point;
+                }
+            }
+        }
+
+        for (int member = 0; member < members; member++) {
+            long[] own = owned[member];
+            points.put(keys[member], ownedCount[member] == own.length ? own : Arrays.copyOf(own, ownedCount[member]));
+        }
+        snapshot = new RingSnapshot<>(
+                k == hashes.length ? hashes : Arrays.copyOf(hashes, k),
+                k == owners.length ? owners : Arrays.copyOf(owners, k),
+                points.size());
     }
 
-    public void removeNode(String nodeKey) {
-        int id = Integer.parseInt(nodeKey);
-        lock.writeLock().lock();
-        try {
-            ring.remove(id);
-        } finally {
-            lock.writeLock().unlock();
+    @Override
+    public synchronized void removeNode(String nodeKey) {
+        if (weighted.remove(nodeKey) == null) {
+            return;
+        }
+        if (pointScale(weighted.values()) != pointScale) {
+            apply(Map.of(), List.of(nodeKey));
+            return;
+        }
+        long[] removed = points.remove(nodeKey);
+        if (removed != null) {
+            RingSnapshot<T> base = without(snapshot, removed);
+            snapshot = new RingSnapshot<>(base.hashes, base.nodes, points.size());
         }
     }
 
+    @Override
     public T getNode(String key) {
-        int hash = hash(key);
-        lock.readLock().lock();
-        try {
-            if (ring.isEmpty()) {
-                return null;
-            }
-            Map.Entry<Integer, T> entry = ring.ceilingEntry(hash);
-            if (entry == null) {
-                entry = ring.firstEntry();
+        return snapshot.ownerOf(hash(key));
+    }
+
+    /**
+     * Walks clockwise from {@code key} and returns the first node accepted by
+     * {@code filter}, or {@code null} if no node on the ring is accepted.
+     */
+    @SuppressWarnings("unchecked")
+    public T getNode(String key, Predicate<? super T> filter) {
+        RingSnapshot<T> current = snapshot;
+        long[] hashes = current.hashes;
+        int n = hashes.length;
+        if (n == 0) {
+            return null;
+        }
+        int start = ceilingIndex(hashes, hash(key));
+        Object rejected = null;
+        for (int step = 0; step < n; step++) {
+            int index = start + step;
+            Object node = current.nodes[index >= n ? index - n : index];
+            // Consecutive points often share a node; skip re-testing it
+            if (node != rejected) {
+                if (filter.test((T) node)) {
+                    return (T) node;
+                }
+                rejected = node;
             }
-            return entry.getValue();
-        } finally {
-            lock.readLock().unlock();
         }
+        return null;
     }
 
-    private int hash(String key) {
-        return Math.abs(key.hashCode()) % (ring.isEmpty() ? 1 : ring.size());
+    /**
+     * Distinct nodes met walking clockwise from {@code key}.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public int getNodes(String key, T[] out) {
+        RingSnapshot<T> current = snapshot;
+        long[] hashes = current.hashes;
+        int n = hashes.length;
+        int wanted = Math.min(out.length, current.nodeCount);
+        if (wanted <= 0) {
+            return 0;
+        }
+        int start = ceilingIndex(hashes, hash(key));
+        int found = 0;
+        for (int step = 0; step < n && found < wanted; step++) {
+            int index = start + step;
+            Object node = current.nodes[index >= n ? index - n : index];
+            if (!contains(out, found, node)) {
+                out[found++] = (T) node;
+            }
+        }
+        return found;
     }
 
+    @Override
     public int size() {
-        lock.readLock().lock();
-        try {
-            return ring.size();
-        } finally {
-            lock.readLock().unlock();
+        return snapshot.nodeCount;
+    }
+
+    /**
+     * The current immutable state of the ring. Cheap: no copy is made.
+     */
+    public RingSnapshot<T> snapshot() {
+        return snapshot;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * Number of ring points for a node of {@code weight} at the current scale;
+     * at least one.
+     */
+    private int pointCount(double weight) {
+        return (int) Math.max(1, Math.min(Math.round(virtualNodes * weight * pointScale), maxPoints));
+    }
+
+    /**
+     * Factor that keeps the points of {@code nodes} within {@code maxPoints}.
+     */
+    private double pointScale(Collection<WeightedNode<T>> nodes) {
+        double total = 0;
+        for (WeightedNode<T> node : nodes) {
+            total += virtualNodes * node.weight();
+        }
+        return total > maxPoints ? maxPoints / total : 1.0;
+    }
+
+    /**
+     * Position of {@code key} on the ring. Exposed so that other components can
+     * reason about hash ranges with exactly the same function the ring uses.
+     */
+    public static long hash(String key) {
+        return Murmur3.hash64(key);
+    }
+
+    private static long pointHash(String nodeKey, int replica) {
+        return Murmur3.hash64(nodeKey + "#" + replica);
+    }
+
+    /**
+     * Index of the first element {@code >= key}, or {@code a.length} if there is
+     * none. The loop has a fixed trip count for a given length and its single
+     * comparison compiles to a conditional move, so it does not mispredict.
+     */
+    static int ceilingIndex(long[] a, long key) {
+        int base = 0;
+        int n = a.length;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = a[base + half] < key ? base + half : base;
+            n -= half;
+        }
+        return a[base] < key ? base + 1 : base;
+    }
+
+    /**
+     * Whether {@code node} is among the first {@code length} elements of
+     * {@code nodes}. Preference lists are short, so a scan beats hashing.
+     */
+    static boolean contains(Object[] nodes, int length, Object node) {
+        for (int i = 0; i < length; i++) {
+            if (nodes[i].equals(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long[] concatSorted(List<long[]> arrays) {
+        int length = 0;
+        for (long[] array : arrays) {
+            length += array == null ? 0 : array.length;
+        }
+        long[] all = new long[length];
+        int k = 0;
+        for (long[] array : arrays) {
+            if (array != null) {
+                System.arraycopy(array, 0, all, k, array.length);
+                k += array.length;
+            }
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    private static <T> RingSnapshot<T> without(RingSnapshot<T> source, long[] removed) {
+        if (removed == null || removed.length == 0) {
+            return source;
+        }
+        int n = source.hashes.length - removed.length;
+        long[] hashes = new long[n];
+        Object[] nodes = new Object[n];
+        int k = 0;
+        int r = 0;
+        for (int i = 0; i < source.hashes.length; i++) {
+            if (r < removed.length && source.hashes[i] == removed[r]) {
+                r++;
+            } else {
+                hashes[k] = source.hashes[i];
+                nodes[k++] = source.nodes[i];
+            }
         }
+        return new RingSnapshot<>(hashes, nodes, source.nodeCount);
     }
 }
@@ -0,0 +1,58 @@
+package com.consistent.hashing.common;
+
+import java.util.Locale;
+
+/**
+ * The available {@link NodeLocator} implementations.
+ *
+ * <table>
+ *   <caption>Trade-offs</caption>
+ *   <tr><th>Algorithm</th><th>Lookup</th><th>Memory</th><th>Key movement</th></tr>
+ *   <tr><td>{@link #RING}</td><td>O(log vn)</td><td>O(vn)</td><td>~1/n, tunable balance</td></tr>
+ *   <tr><td>{@link #JUMP}</td><td>O(ln n)</td><td>O(n)</td><td>1/n at the tail only</td></tr>
+ *   <tr><td>{@link #RENDEZVOUS}</td><td>O(n)</td><td>O(n)</td><td>1/n</td></tr>
+ *   <tr><td>{@link #MAGLEV}</td><td>O(1)</td><td>O(table)</td><td>slightly above 1/n</td></tr>
+ *   <tr><td>{@link #BOUNDED_LOAD}</td><td>O(log vn) + walk</td><td>O(vn)</td><td>~1/n plus overflow</td></tr>
+ * </table>
+ */
+public enum HashAlgorithm {
+
+    RING,
+    JUMP,
+    RENDEZVOUS,
+    MAGLEV,
+    BOUNDED_LOAD;
+
+    /**
+     * The configuration value used when {@code ring.algorithm} is not set. The
+     * load balancer and the API services' peer rings must agree on it, or they
+     * disagree on key ownership.
+     */
+    public static final String DEFAULT_NAME = "bounded-load";
+
+    public <T> NodeLocator<T> create(int virtualNodes) {
+        return create(virtualNodes, BoundedLoadHashRing.DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * @param loadFactor only used by {@link #BOUNDED_LOAD}: how far above the mean
+     *                   load a node may go before keys overflow to its neighbours
+     */
+    public <T> NodeLocator<T> create(int virtualNodes, double loadFactor) {
+        return switch (this) {
+            case RING -> new ConsistentHashRing<>(virtualNodes);
+            case JUMP -> new JumpConsistentHash<>();
+            case RENDEZVOUS -> new RendezvousHash<>();
+            case MAGLEV -> new MaglevHash<>();
+            case BOUNDED_LOAD -> new BoundedLoadHashRing<>(virtualNodes, loadFactor);
+        };
+    }
+
+    /**
+     * Parses configuration values such as {@code ring}, {@code maglev} or
+     * {@code bounded-load}, ignoring case.
+     */
+    public static HashAlgorithm fromName(String name) {
+        return valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,32 @@
+package com.consistent.hashing.common;
+
+/**
+ * An arc of the 64-bit hash ring: the hashes after {@code start} up to and
+ * including {@code end}, going clockwise (increasing, wrapping from
+ * {@link Long#MAX_VALUE} to {@link Long#MIN_VALUE}). An arc whose start equals its
+ * end covers the whole ring.
+ */
+public record HashRange(long start, long end) {
+
+    public boolean contains(long hash) {
+        if (start < end) {
+            return hash > start && hash <= end;
+        }
+        if (start > end) {
+            return hash > start || hash <= end;
+        }
+        return true;
+    }
+
+    /**
+     * Length of the arc as a fraction of the whole ring.
+     */
+    public double fraction() {
+        if (start == end) {
+            return 1.0;
+        }
+        // Unsigned distance; wraps correctly for arcs that cross MAX_VALUE
+        long length = end - start;
+        return ((length >>> 1) * 2.0 + (length & 1)) / 0x1p64;
+    }
+}
@@ -0,0 +1,65 @@
+package com.consistent.hashing.common;
+
+import java.util.List;
+
+/**
+ * Jump Consistent Hash (Lamping and Veach). Needs no memory beyond the member
+ * array and runs in {@code O(ln n)}, but buckets are positional: only adding or
+ * removing the last member (in node key order) moves the ideal {@code 1/n} of
+ * the keys. Removing a member from the middle shifts every later bucket.
+ * Buckets are equal, so weights are ignored.
+ */
+public class JumpConsistentHash<T> extends AbstractNodeLocator<T> {
+
+    private volatile Object[] nodes = new Object[0];
+
+    @Override
+    protected void rebuild(List<String> keys, List<T> members, double[] weights) {
+        nodes = members.toArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T getNode(String key) {
+        Object[] current = nodes;
+        if (current.length == 0) {
+            return null;
+        }
+        return (T) current[bucket(ConsistentHashRing.hash(key), current.length)];
+    }
+
+    /**
+     * The jump-hash bucket followed by the buckets after it, wrapping around.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public int getNodes(String key, T[] out) {
+        Object[] current = nodes;
+        int n = current.length;
+        int wanted = Math.min(out.length, n);
+        if (wanted == 0) {
+            return 0;
+        }
+        int first = bucket(ConsistentHashRing.hash(key), n);
+        for (int i = 0; i < wanted; i++) {
+            out[i] = (T) current[(first + i) % n];
+        }
+        return wanted;
+    }
+
+    @Override
+    public int size() {
+        return nodes.length;
+    }
+
+    static int bucket(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+}
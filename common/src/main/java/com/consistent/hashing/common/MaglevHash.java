@@ -0,0 +1,118 @@
+package com.consistent.hashing.common;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maglev hashing (Eisenbud et al.). Members fill a prime-sized lookup table by
+ * walking their own permutation of the slots in turn, giving {@code O(1)}
+ * lookups and near-perfect balance. Key movement on membership changes is
+ * slightly above the ideal {@code 1/n}. Weighted members take turns in
+ * proportion to their weight. The table grows with the member count so
+ * that it stays at least 100 slots per member.
+ */
+public class MaglevHash<T> extends AbstractNodeLocator<T> {
+
+    private static final int[] TABLE_SIZES = {65_537, 655_373, 6_553_577};
+
+    private volatile Snapshot snapshot = new Snapshot(new int[0], new Object[0]);
+
+    @Override
+    protected void rebuild(List<String> keys, List<T> members, double[] weights) {
+        int n = keys.size();
+        if (n == 0) {
+            snapshot = new Snapshot(new int[0], new Object[0]);
+            return;
+        }
+        int m = tableSize(n);
+        long[] offsets = new long[n];
+        long[] skips = new long[n];
+        for (int i = 0; i < n; i++) {
+            String key = keys.get(i);
+            offsets[i] = Long.remainderUnsigned(Murmur3.hash64(key, 0xbadc0ffeeL), m);
+            skips[i] = Long.remainderUnsigned(Murmur3.hash64(key, 0x5eedL), m - 1) + 1;
+        }
+
+        double maxWeight = 0;
+        for (double weight : weights) {
+            maxWeight = Math.max(maxWeight, weight);
+        }
+        double[] credit = new double[n];
+
+        int[] table = new int[m];
+        Arrays.fill(table, -1);
+        long[] next = new long[n];
+        int filled = 0;
+        while (true) {
+            for (int i = 0; i < n; i++) {
+                // The heaviest member fills a slot every round, the others proportionally less often
+                credit[i] += weights[i] / maxWeight;
+                if (credit[i] < 1) {
+                    continue;
+                }
+                credit[i] -= 1;
+                long slot = (offsets[i] + next[i] * skips[i]) % m;
+                while (table[(int) slot] >= 0) {
+                    next[i]++;
+                    slot = (offsets[i] + next[i] * skips[i]) % m;
+                }
+                table[(int) slot] = i;
+                next[i]++;
+                if (++filled == m) {
+                    snapshot = new Snapshot(table, members.toArray());
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T getNode(String key) {
+        Snapshot current = snapshot;
+        int[] table = current.table;
+        if (table.length == 0) {
+            return null;
+        }
+        return (T) current.nodes[table[(int) Long.remainderUnsigned(ConsistentHashRing.hash(key), table.length)]];
+    }
+
+    /**
+     * The table owner followed by the next distinct owners in table order.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public int getNodes(String key, T[] out) {
+        Snapshot current = snapshot;
+        int[] table = current.table;
+        int wanted = Math.min(out.length, current.nodes.length);
+        if (wanted == 0) {
+            return 0;
+        }
+        int slot = (int) Long.remainderUnsigned(ConsistentHashRing.hash(key), table.length);
+        int found = 0;
+        for (int step = 0; step < table.length && found < wanted; step++) {
+            Object node = current.nodes[table[(slot + step) % table.length]];
+            if (!ConsistentHashRing.contains(out, found, node)) {
+                out[found++] = (T) node;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int size() {
+        return snapshot.nodes.length;
+    }
+
+    static int tableSize(int members) {
+        for (int size : TABLE_SIZES) {
+            if (size >= members * 100L) {
+                return size;
+            }
+        }
+        return TABLE_SIZES[TABLE_SIZES.length - 1];
+    }
+
+    private record Snapshot(int[] table, Object[] nodes) {}
+}
@@ -0,0 +1,7 @@
+package com.consistent.hashing.common;
+
+/**
+ * A {@link HashRange} whose owner changed from {@code from} to {@code to}.
+ * Either side is {@code null} when the ring had no nodes at that time.
+ */
+public record MovedRange<T>(HashRange range, T from, T to) {}
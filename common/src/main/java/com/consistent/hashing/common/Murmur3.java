@@ -0,0 +1,164 @@
+package com.consistent.hashing.common;
+
+/**
+ * MurmurHash3 x64/128, truncated to the first 64 bits of the digest.
+ * <p>
+ * The {@link CharSequence} variant hashes the UTF-16LE code units of the input
+ * directly, so it gives the same result as {@link #hash64(byte[], int, int, long)}
+ * over {@code s.getBytes(UTF_16LE)} without allocating the intermediate array.
+ */
+public final class Murmur3 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private Murmur3() {
+    }
+
+    public static long hash64(CharSequence s) {
+        return hash64(s, 0);
+    }
+
+    public static long hash64(CharSequence s, long seed) {
+        int length = s.length();
+        long h1 = seed;
+        long h2 = seed;
+
+        int blocks = length >>> 3; // 8 chars == 16 bytes
+        for (int b = 0; b < blocks; b++) {
+            int i = b << 3;
+            long k1 = lane(s, i);
+            long k2 = lane(s, i + 4);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = blocks << 3;
+        int remaining = length - tail;
+        long k1 = 0;
+        long k2 = 0;
+        for (int j = remaining - 1; j >= 0; j--) {
+            long c = s.charAt(tail + j);
+            if (j >= 4) {
+                k2 |= c << ((j - 4) << 4);
+            } else {
+                k1 |= c << (j << 4);
+            }
+        }
+        if (remaining > 4) {
+            h2 ^= mixK2(k2);
+        }
+        if (remaining > 0) {
+            h1 ^= mixK1(k1);
+        }
+
+        return finish(h1, h2, (long) length << 1);
+    }
+
+    public static long hash64(byte[] data, int offset, int length, long seed) {
+        long h1 = seed;
+        long h2 = seed;
+
+        int blocks = length >>> 4;
+        for (int b = 0; b < blocks; b++) {
+            int i = offset + (b << 4);
+            long k1 = littleEndianLong(data, i);
+            long k2 = littleEndianLong(data, i + 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = offset + (blocks << 4);
+        int remaining = length & 15;
+        long k1 = 0;
+        long k2 = 0;
+        for (int j = remaining - 1; j >= 0; j--) {
+            long v = data[tail + j] & 0xffL;
+            if (j >= 8) {
+                k2 |= v << ((j - 8) << 3);
+            } else {
+                k1 |= v << (j << 3);
+            }
+        }
+        if (remaining > 8) {
+            h2 ^= mixK2(k2);
+        }
+        if (remaining > 0) {
+            h1 ^= mixK1(k1);
+        }
+
+        return finish(h1, h2, length);
+    }
+
+    /**
+     * Finalization mix used by MurmurHash3. Also handy on its own for spreading
+     * already well-formed 64-bit values such as sequence IDs.
+     */
+    public static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long lane(CharSequence s, int i) {
+        return (long) s.charAt(i)
+                | (long) s.charAt(i + 1) << 16
+                | (long) s.charAt(i + 2) << 32
+                | (long) s.charAt(i + 3) << 48;
+    }
+
+    private static long littleEndianLong(byte[] data, int i) {
+        return (data[i] & 0xffL)
+                | (data[i + 1] & 0xffL) << 8
+                | (data[i + 2] & 0xffL) << 16
+                | (data[i + 3] & 0xffL) << 24
+                | (data[i + 4] & 0xffL) << 32
+                | (data[i + 5] & 0xffL) << 40
+                | (data[i + 6] & 0xffL) << 48
+                | (data[i + 7] & 0xffL) << 56;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long finish(long h1, long h2, long length) {
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        return h1;
+    }
+}
@@ -0,0 +1,77 @@
+package com.consistent.hashing.common;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps keys to member nodes. Implementations trade lookup latency, memory and
+ * key movement on membership changes differently; see {@link HashAlgorithm}.
+ * <p>
+ * All implementations are safe for concurrent use, and {@link #getNode} never
+ * blocks on writers.
+ */
+public interface NodeLocator<T> {
+
+    void addNode(String nodeKey, T node);
+
+    /**
+     * Adds or replaces a node that should own {@code weight} times the share of a
+     * node of weight 1. Locators that cannot weight nodes ignore the weight.
+     */
+    default void addNode(String nodeKey, T node, double weight) {
+        addNode(nodeKey, node);
+    }
+
+    void removeNode(String nodeKey);
+
+    /**
+     * Rejects a weight that is not a positive finite number. Every locator checks
+     * weights with this, so they all accept the same ones.
+     */
+    static void checkWeight(double weight) {
+        if (!(weight > 0) || Double.isInfinite(weight)) {
+            throw new IllegalArgumentException("weight must be positive: " + weight);
+        }
+    }
+
+    /**
+     * Removes the nodes in {@code removed}, then adds or replaces the nodes in
+     * {@code added}, as one change: lookups see the membership before or after
+     * the whole batch, never in between, and the lookup structure is rebuilt
+     * once. Invalid weights are rejected before anything changes. The default
+     * applies the changes one by one, without those guarantees.
+     */
+    default void apply(Map<String, WeightedNode<T>> added, Collection<String> removed) {
+        removed.forEach(this::removeNode);
+        added.forEach((nodeKey, member) -> addNode(nodeKey, member.node(), member.weight()));
+    }
+
+    /**
+     * Returns the node owning {@code key}, or {@code null} if there are no nodes.
+     */
+    T getNode(String key);
+
+    /**
+     * Fills {@code out} with up to {@code out.length} distinct nodes for
+     * {@code key} in preference order and returns how many were written. The
+     * first is the node {@link #getNode} returns without load considerations;
+     * the rest are where the key should go if those before it are unavailable.
+     * Allocates nothing, so callers on a hot path can reuse the array.
+     */
+    int getNodes(String key, T[] out);
+
+    /**
+     * Like {@link #getNodes(String, Object[])}, returning a new list of at most
+     * {@code count} nodes.
+     */
+    @SuppressWarnings("unchecked")
+    default List<T> getNodes(String key, int count) {
+        T[] out = (T[]) new Object[Math.max(Math.min(count, size()), 0)];
+        int n = getNodes(key, out);
+        return Arrays.asList(n == out.length ? out : Arrays.copyOf(out, n));
+    }
+
+    int size();
+}
@@ -0,0 +1,147 @@
+package com.consistent.hashing.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What an API service instance advertises in its ZooKeeper node.
+ * <p>
+ * Besides the JSON form {@code {"host", "port", "weight"}}, registrations can use
+ * a compact binary form: a marker byte, the weight as a big-endian double, the
+ * port as an unsigned short and the host in UTF-8. The marker {@code 0xC1} never
+ * starts UTF-8 text, so readers can tell the two apart and a fleet can switch
+ * forms one instance at a time.
+ * <p>
+ * Nodes live under {@link #SERVICE_PATH}: {@code instance-<sequence>} for
+ * sequential registrations and {@code node-<name>} for named ones. The load
+ * balancer, the API services' peer rings and the registration itself all read
+ * paths and payloads through this class, so they cannot disagree on them.
+ */
+public record RegistrationPayload(String host, int port, double weight) {
+
+    public static final String SERVICE_PATH = "/services/api";
+    public static final String SEQUENTIAL_PREFIX = SERVICE_PATH + "/instance-";
+    public static final String NAMED_PREFIX = SERVICE_PATH + "/node-";
+
+    static final byte COMPACT_MARKER = (byte) 0xC1;
+    private static final int HEADER_BYTES = 1 + Double.BYTES + Short.BYTES;
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    public RegistrationPayload {
+        if (port < 0 || port > 0xFFFF) {
+            throw new IllegalArgumentException("port out of range: " + port);
+        }
+    }
+
+    /**
+     * The ring node key of a registration path: the name of a named instance, or
+     * the sequence number, without leading zeros, of a sequential one.
+     * {@code null} for the parent path itself and anything unrecognised, such as
+     * a purely numeric name, which would clash with sequence numbers.
+     */
+    public static String nodeKey(String path) {
+        if (path.startsWith(NAMED_PREFIX)) {
+            String name = path.substring(NAMED_PREFIX.length());
+            return name.isEmpty() || name.chars().allMatch(Character::isDigit) ? null : name;
+        }
+        if (!path.startsWith(SERVICE_PATH + "/")) {
+            return null;
+        }
+        String sequence = path.substring(path.lastIndexOf('-') + 1);
+        try {
+            return String.valueOf(Integer.parseInt(sequence));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a registration in either form.
+     *
+     * @throws IllegalArgumentException if {@code data} is neither valid form
+     */
+    public static RegistrationPayload parse(byte[] data) {
+        if (isCompact(data)) {
+            return decode(data);
+        }
+        try {
+            JsonNode json = JSON.readTree(data);
+            if (json == null || !json.hasNonNull("host") || !json.path("port").canConvertToInt()) {
+                throw new IllegalArgumentException("registration without host and port: " + json);
+            }
+            return new RegistrationPayload(json.get("host").asText(), json.get("port").asInt(),
+                    json.path("weight").asDouble(1.0));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("unreadable registration", e);
+        }
+    }
+
+    /**
+     * The weight to place on the ring: {@link #weight()}, or 1 if it is not a
+     * positive finite number.
+     */
+    public double ringWeight() {
+        return weight > 0 && !Double.isInfinite(weight) ? weight : 1.0;
+    }
+
+    /**
+     * {@code host:port}, the same form as {@link ServiceInstance#address()}.
+     */
+    public String address() {
+        return host + ":" + port;
+    }
+
+    /**
+     * The JSON form, readable in zkCli.
+     */
+    public byte[] toJson() {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("host", host);
+        json.put("port", port);
+        json.put("weight", weight);
+        try {
+            return JSON.writeValueAsBytes(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static boolean isCompact(byte[] data) {
+        return data != null && data.length > 0 && data[0] == COMPACT_MARKER;
+    }
+
+    public byte[] encode() {
+        byte[] hostBytes = host.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(HEADER_BYTES + hostBytes.length)
+                .put(COMPACT_MARKER)
+                .putDouble(weight)
+                .putShort((short) port)
+                .put(hostBytes)
+                .array();
+    }
+
+    /**
+     * Decodes the compact form.
+     *
+     * @throws IllegalArgumentException if {@code data} is not in the compact form
+     */
+    public static RegistrationPayload decode(byte[] data) {
+        if (!isCompact(data) || data.length <= HEADER_BYTES) {
+            throw new IllegalArgumentException("not a compact registration: " + Arrays.toString(
+                    data == null ? null : Arrays.copyOf(data, Math.min(data.length, 16))));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 1, data.length - 1);
+        double weight = buffer.getDouble();
+        int port = Short.toUnsignedInt(buffer.getShort());
+        String host = new String(data, HEADER_BYTES, data.length - HEADER_BYTES, StandardCharsets.UTF_8);
+        return new RegistrationPayload(host, port, weight);
+    }
+}
@@ -0,0 +1,100 @@
+package com.consistent.hashing.common;
+
+import java.util.List;
+
+/**
+ * Rendezvous (highest random weight) hashing. Each key goes to the node with the
+ * highest {@code mix(hash(key), hash(node))}. Key movement is the ideal
+ * {@code 1/n} and there is nothing to tune, at the cost of an {@code O(n)} scan
+ * per lookup.
+ * <p>
+ * With unequal weights the score becomes {@code -w / ln(u)} for {@code u} drawn
+ * uniformly from the same mix (weighted rendezvous hashing), which gives each
+ * node a share proportional to its weight and keeps movement minimal.
+ */
+public class RendezvousHash<T> extends AbstractNodeLocator<T> {
+
+    private volatile Snapshot snapshot = new Snapshot(new long[0], new Object[0], null);
+
+    @Override
+    protected void rebuild(List<String> keys, List<T> members, double[] weights) {
+        long[] seeds = new long[keys.size()];
+        boolean weighted = false;
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = Murmur3.hash64(keys.get(i));
+            weighted |= weights[i] != weights[0];
+        }
+        // Equal weights keep the cheaper integer score
+        snapshot = new Snapshot(seeds, members.toArray(), weighted ? weights : null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T getNode(String key) {
+        Snapshot current = snapshot;
+        long[] seeds = current.seeds;
+        if (seeds.length == 0) {
+            return null;
+        }
+        long keyHash = ConsistentHashRing.hash(key);
+        int best = 0;
+        long bestScore = Long.MIN_VALUE;
+        for (int i = 0; i < seeds.length; i++) {
+            long score = score(keyHash, seeds[i], current.weights, i);
+            if (score > bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        return (T) current.nodes[best];
+    }
+
+    /**
+     * Nodes in descending score order.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public int getNodes(String key, T[] out) {
+        Snapshot current = snapshot;
+        long[] seeds = current.seeds;
+        int wanted = Math.min(out.length, seeds.length);
+        long keyHash = ConsistentHashRing.hash(key);
+        // Partial selection, one pass per slot: out is tiny compared to the member count
+        long lastScore = 0;
+        int last = -1;
+        for (int k = 0; k < wanted; k++) {
+            int best = -1;
+            long bestScore = Long.MIN_VALUE;
+            for (int i = 0; i < seeds.length; i++) {
+                long score = score(keyHash, seeds[i], current.weights, i);
+                boolean below = last < 0 || score < lastScore || (score == lastScore && i > last);
+                if (below && (best < 0 || score > bestScore)) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            lastScore = bestScore;
+            last = best;
+            out[k] = (T) current.nodes[best];
+        }
+        return wanted;
+    }
+
+    @Override
+    public int size() {
+        return snapshot.seeds.length;
+    }
+
+    private static long score(long keyHash, long seed, double[] weights, int i) {
+        long mix = Murmur3.fmix64(keyHash ^ seed);
+        if (weights == null) {
+            // Flip the sign bit so that signed comparison orders scores as unsigned
+            return mix ^ Long.MIN_VALUE;
+        }
+        double u = ((mix >>> 11) + 0.5) * 0x1.0p-53;
+        // Positive doubles order the same as their bit patterns
+        return Double.doubleToRawLongBits(-weights[i] / Math.log(u));
+    }
+
+    private record Snapshot(long[] seeds, Object[] nodes, double[] weights) {}
+}
@@ -0,0 +1,83 @@
+package com.consistent.hashing.common;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Offline front end of {@link RingAnalyzer}:
+ * <pre>
+ * ./gradlew :common:analyzeRing --args="--nodes 8 --algorithm ring --virtual-nodes 160 --keys 100000000"
+ * ./gradlew :common:analyzeRing --args="--nodes api-0,api-1,api-2:2 --trace users.txt --leave api-1"
+ * </pre>
+ * {@code --nodes} is a node count, or node keys with optional {@code :weight};
+ * {@code --trace} reads one key per line instead of generating {@code --keys}
+ * numeric keys. {@code --parallelism} defaults to every processor.
+ */
+public final class RingAnalysisCli {
+
+    private RingAnalysisCli() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                System.err.println("Usage: --nodes <count|key[:weight],...> [--algorithm bounded-load]"
+                        + " [--virtual-nodes 160] [--keys 1000000 | --trace <file>] [--leave <key>] [--parallelism <threads>]");
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        RingAnalyzer analyzer = new RingAnalyzer(
+                HashAlgorithm.fromName(options.getOrDefault("algorithm", HashAlgorithm.DEFAULT_NAME)),
+                Integer.parseInt(options.getOrDefault("virtual-nodes", "160")),
+                parseNodes(options.getOrDefault("nodes", "4")),
+                options.get("leave"));
+        int parallelism = Integer.parseInt(options.getOrDefault("parallelism",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        RingAnalyzer.Report report;
+        if (options.containsKey("trace")) {
+            try (Stream<String> keys = Files.lines(Path.of(options.get("trace")))) {
+                report = analyzer.analyze(keys.map(String::trim).filter(key -> !key.isEmpty()), parallelism);
+            }
+        } else {
+            report = analyzer.analyze(
+                    RingAnalyzer.sequentialKeys(Long.parseLong(options.getOrDefault("keys", "1000000"))), parallelism);
+        }
+        print(report, System.out);
+    }
+
+    static Map<String, Double> parseNodes(String spec) {
+        if (spec.chars().allMatch(Character::isDigit)) {
+            return RingAnalyzer.uniformNodes(Integer.parseInt(spec));
+        }
+        Map<String, Double> nodes = new LinkedHashMap<>();
+        for (String node : spec.split(",")) {
+            String[] parts = node.trim().split(":");
+            nodes.put(parts[0], parts.length > 1 ? Double.parseDouble(parts[1]) : 1.0);
+        }
+        return nodes;
+    }
+
+    static void print(RingAnalyzer.Report report, PrintStream out) {
+        out.printf(Locale.ROOT, "%s, %d virtual nodes, %,d keys in %,d ms%n%n",
+                report.algorithm(), report.virtualNodes(), report.keys(), report.elapsedMillis());
+        out.printf(Locale.ROOT, "%-24s %8s %14s %9s %9s %7s%n", "node", "weight", "keys", "share", "fair", "load");
+        for (RingAnalyzer.NodeShare node : report.nodes()) {
+            out.printf(Locale.ROOT, "%-24s %8.2f %,14d %8.3f%% %8.3f%% %7.3f%n", node.node(), node.weight(),
+                    node.keys(), node.share() * 100, node.fairShare() * 100, node.load());
+        }
+        out.printf(Locale.ROOT, "%nload std dev %.4f, max/mean %.4f%n", report.stdDev(), report.maxMeanRatio());
+        out.printf(Locale.ROOT, "join of %s moves %.3f%% of keys (ideal %.3f%%)%n", report.join().node(),
+                report.join().movedFraction() * 100, report.join().idealFraction() * 100);
+        out.printf(Locale.ROOT, "leave of %s moves %.3f%% of keys (ideal %.3f%%)%n", report.leave().node(),
+                report.leave().movedFraction() * 100, report.leave().idealFraction() * 100);
+    }
+}
@@ -0,0 +1,175 @@
+package com.consistent.hashing.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Measures how a {@link NodeLocator} spreads a sample of keys over weighted
+ * nodes, and how many of those keys move when one node joins or leaves.
+ * <p>
+ * Each key is looked up in three locators built from the same configuration:
+ * the nodes as given, with one extra node of weight 1, and without the
+ * {@code leaving} node. Keys are processed by a parallel stream on a pool of
+ * its own, each worker counting into primitive arrays, so 10<sup>8</sup> keys
+ * take seconds on a few cores. Loads are relative to a node's fair share: a
+ * node of weight {@code w} out of total weight {@code W} should own
+ * {@code w / W} of the keys. {@link HashAlgorithm#JUMP} ignores weights, so its
+ * loads are only meaningful for equal weights. Bounded-load is measured as its
+ * underlying ring, since it only deviates under load.
+ */
+public final class RingAnalyzer {
+
+    static final String ADDED_NODE = "analysis-added";
+
+    private final HashAlgorithm algorithm;
+    private final int virtualNodes;
+    private final String[] names;
+    private final double[] weights;
+    private final int leaving;
+
+    /**
+     * @param nodes   node keys and their weights, in a stable order
+     * @param leaving the node whose removal is measured; {@code null} for the first
+     */
+    public RingAnalyzer(HashAlgorithm algorithm, int virtualNodes, Map<String, Double> nodes, String leaving) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("No nodes to analyze");
+        }
+        this.algorithm = algorithm;
+        this.virtualNodes = virtualNodes;
+        this.names = nodes.keySet().toArray(String[]::new);
+        this.weights = nodes.values().stream().mapToDouble(Double::doubleValue).toArray();
+        this.leaving = leaving == null ? 0 : List.of(names).indexOf(leaving);
+        if (this.leaving < 0) {
+            throw new IllegalArgumentException("Unknown node " + leaving);
+        }
+        if (nodes.containsKey(ADDED_NODE)) {
+            throw new IllegalArgumentException("Node key " + ADDED_NODE + " is reserved");
+        }
+    }
+
+    /**
+     * {@code count} nodes {@code node-0}, {@code node-1}, ... of weight 1.
+     */
+    public static Map<String, Double> uniformNodes(int count) {
+        Map<String, Double> nodes = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            nodes.put("node-" + i, 1.0);
+        }
+        return nodes;
+    }
+
+    /**
+     * The keys {@code "0"} to {@code count - 1}, the shape of the test client's user IDs.
+     */
+    public static Stream<String> sequentialKeys(long count) {
+        return LongStream.range(0, count).mapToObj(Long::toString);
+    }
+
+    /**
+     * Looks up every key of {@code keys} on {@code parallelism} threads.
+     */
+    public Report analyze(Stream<String> keys, int parallelism) {
+        long start = System.nanoTime();
+        NodeLocator<Integer> base = locator(-1, false);
+        NodeLocator<Integer> grown = locator(-1, true);
+        NodeLocator<Integer> shrunk = locator(leaving, false);
+        int n = names.length;
+        // Keys per node, then keys moved by the join and by the leave, then the key count
+        long[] counts;
+        try (ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1))) {
+            counts = pool.submit(() -> keys.parallel().collect(() -> new long[n + 3], (acc, key) -> {
+                int owner = base.getNode(key);
+                acc[owner]++;
+                if (grown.getNode(key) != owner) {
+                    acc[n]++;
+                }
+                // Removing the only node leaves every key without an owner
+                Integer after = shrunk.getNode(key);
+                if (after == null || after != owner) {
+                    acc[n + 1]++;
+                }
+                acc[n + 2]++;
+            }, (left, right) -> {
+                for (int i = 0; i < left.length; i++) {
+                    left[i] += right[i];
+                }
+            })).join();
+        }
+        return report(counts, System.nanoTime() - start);
+    }
+
+    private NodeLocator<Integer> locator(int without, boolean withAdded) {
+        NodeLocator<Integer> locator = algorithm.create(virtualNodes);
+        Map<String, WeightedNode<Integer>> members = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            if (i != without) {
+                members.put(names[i], new WeightedNode<>(i, weights[i]));
+            }
+        }
+        if (withAdded) {
+            members.put(ADDED_NODE, new WeightedNode<>(names.length, 1.0));
+        }
+        locator.apply(members, List.of());
+        return locator;
+    }
+
+    private Report report(long[] counts, long elapsedNanos) {
+        int n = names.length;
+        long keys = counts[n + 2];
+        double totalWeight = 0;
+        for (double weight : weights) {
+            totalWeight += weight;
+        }
+        List<NodeShare> nodes = new ArrayList<>(n);
+        double sum = 0;
+        double sumOfSquares = 0;
+        double max = 0;
+        for (int i = 0; i < n; i++) {
+            double share = keys > 0 ? (double) counts[i] / keys : 0;
+            double fairShare = weights[i] / totalWeight;
+            double load = share / fairShare;
+            nodes.add(new NodeShare(names[i], weights[i], counts[i], share, fairShare, load));
+            sum += load;
+            sumOfSquares += load * load;
+            max = Math.max(max, load);
+        }
+        double mean = sum / n;
+        double stdDev = Math.sqrt(Math.max(sumOfSquares / n - mean * mean, 0));
+        return new Report(algorithm.name().toLowerCase(Locale.ROOT).replace('_', '-'), virtualNodes, keys, nodes,
+                stdDev, mean > 0 ? max / mean : 0,
+                new Movement(ADDED_NODE, fraction(counts[n], keys), 1.0 / (totalWeight + 1.0)),
+                new Movement(names[leaving], fraction(counts[n + 1], keys), weights[leaving] / totalWeight),
+                elapsedNanos / 1_000_000);
+    }
+
+    private static double fraction(long part, long whole) {
+        return whole > 0 ? (double) part / whole : 0;
+    }
+
+    /**
+     * @param stdDev       standard deviation of the nodes' loads
+     * @param maxMeanRatio the highest load over the mean load
+     * @param join         keys moved by adding a node of weight 1
+     * @param leave        keys moved by removing one node
+     */
+    public record Report(String algorithm, int virtualNodes, long keys, List<NodeShare> nodes,
+                         double stdDev, double maxMeanRatio, Movement join, Movement leave, long elapsedMillis) {}
+
+    /**
+     * @param load {@code share / fairShare}; 1.0 is exactly the node's fair share
+     */
+    public record NodeShare(String node, double weight, long keys, double share, double fairShare, double load) {}
+
+    /**
+     * @param movedFraction share of the sampled keys whose owner changed
+     * @param idealFraction the least any locator could move: the share the node gains or gives up
+     */
+    public record Movement(String node, double movedFraction, double idealFraction) {}
+}
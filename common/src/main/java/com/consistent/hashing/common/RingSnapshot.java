@@ -0,0 +1,120 @@
+package com.consistent.hashing.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable state of a {@link ConsistentHashRing}: its sorted point hashes and
+ * the node at each point. Snapshots are what lookups read, and they can be kept
+ * across membership changes to work out which hash ranges moved.
+ */
+public final class RingSnapshot<T> {
+
+    static final RingSnapshot<?> EMPTY = new RingSnapshot<>(new long[0], new Object[0], 0);
+
+    final long[] hashes;
+    final Object[] nodes;
+    final int nodeCount;
+
+    RingSnapshot(long[] hashes, Object[] nodes, int nodeCount) {
+        this.hashes = hashes;
+        this.nodes = nodes;
+        this.nodeCount = nodeCount;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> RingSnapshot<T> empty() {
+        return (RingSnapshot<T>) EMPTY;
+    }
+
+    /**
+     * Node owning {@code hash}, or {@code null} for an empty ring.
+     */
+    @SuppressWarnings("unchecked")
+    public T ownerOf(long hash) {
+        int n = hashes.length;
+        if (n == 0) {
+            return null;
+        }
+        int index = ConsistentHashRing.ceilingIndex(hashes, hash);
+        return (T) nodes[index == n ? 0 : index];
+    }
+
+    public int size() {
+        return nodeCount;
+    }
+
+    public int points() {
+        return hashes.length;
+    }
+
+    /**
+     * Ranges whose owner differs between this snapshot and {@code next}, with
+     * adjacent ranges that moved between the same pair of nodes merged. Runs in
+     * time linear in the number of points of both snapshots.
+     */
+    public List<MovedRange<T>> movedRanges(RingSnapshot<T> next) {
+        long[] boundaries = union(hashes, next.hashes);
+        List<MovedRange<T>> moved = new ArrayList<>();
+        int n = boundaries.length;
+        if (n == 0) {
+            return moved;
+        }
+
+        // Every arc (boundaries[i - 1], boundaries[i]] has one owner on each side
+        long start = 0;
+        T from = null;
+        T to = null;
+        boolean open = false;
+        for (int i = 0; i < n; i++) {
+            long end = boundaries[i];
+            long arcStart = boundaries[i == 0 ? n - 1 : i - 1];
+            T before = ownerOf(end);
+            T after = next.ownerOf(end);
+            boolean changed = !Objects.equals(before, after);
+            if (open && (!changed || !Objects.equals(before, from) || !Objects.equals(after, to))) {
+                moved.add(new MovedRange<>(new HashRange(start, arcStart), from, to));
+                open = false;
+            }
+            if (changed && !open) {
+                start = arcStart;
+                from = before;
+                to = after;
+                open = true;
+            }
+        }
+        if (open) {
+            long end = boundaries[n - 1];
+            // The wrapping arc is first; merge with it when it continues this run
+            if (!moved.isEmpty() && moved.get(0).range().start() == end
+                    && Objects.equals(moved.get(0).from(), from) && Objects.equals(moved.get(0).to(), to)) {
+                MovedRange<T> first = moved.remove(0);
+                moved.add(new MovedRange<>(new HashRange(start, first.range().end()), from, to));
+            } else {
+                moved.add(new MovedRange<>(new HashRange(start, end), from, to));
+            }
+        }
+        return moved;
+    }
+
+    private static long[] union(long[] a, long[] b) {
+        long[] merged = new long[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < a.length || j < b.length) {
+            long next;
+            if (j == b.length || (i < a.length && a[i] <= b[j])) {
+                next = a[i++];
+            } else {
+                next = b[j++];
+            }
+            if (k == 0 || merged[k - 1] != next) {
+                merged[k++] = next;
+            }
+        }
+        return Arrays.copyOf(merged, k);
+    }
+}
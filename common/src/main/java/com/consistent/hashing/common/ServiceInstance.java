@@ -5,4 +5,17 @@ public record ServiceInstance(int id, String host, int port) {
     public String address() {
         return host + ":" + port;
     }
+
+    /**
+     * The numeric ID of the instance with ring node key {@code nodeKey}: the
+     * sequence number of a sequential registration, or a non-negative hash of a
+     * stable node name, so a named instance keeps its ID across restarts.
+     */
+    public static int idFor(String nodeKey) {
+        try {
+            return Integer.parseInt(nodeKey);
+        } catch (NumberFormatException e) {
+            return (int) (Murmur3.hash64(nodeKey) >>> 33);
+        }
+    }
 }
@@ -0,0 +1,11 @@
+package com.consistent.hashing.common;
+
+/**
+ * A node together with its weight, as passed to {@link NodeLocator#apply}.
+ */
+public record WeightedNode<T>(T node, double weight) {
+
+    public WeightedNode(T node) {
+        this(node, 1.0);
+    }
+}
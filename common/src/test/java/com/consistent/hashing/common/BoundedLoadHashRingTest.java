@@ -0,0 +1,81 @@
+package com.consistent.hashing.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BoundedLoadHashRingTest {
+
+    @Test
+    void idleRingRoutesToRingOwner() {
+        ConsistentHashRing<String> plain = new ConsistentHashRing<>();
+        BoundedLoadHashRing<String> bounded = new BoundedLoadHashRing<>();
+        for (int n = 0; n < 4; n++) {
+            plain.addNode(String.valueOf(n), "node-" + n);
+            bounded.addNode(String.valueOf(n), "node-" + n);
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(bounded.getNode("user-" + i)).isEqualTo(plain.getNode("user-" + i));
+        }
+    }
+
+    @Test
+    void hotKeyOverflowsToNeighboursWithinBound() {
+        BoundedLoadHashRing<String> ring = new BoundedLoadHashRing<>(100, 1.25);
+        for (int n = 0; n < 4; n++) {
+            ring.addNode(String.valueOf(n), "node-" + n);
+        }
+        String owner = ring.getNode("hot-user");
+
+        List<String> assigned = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            assigned.add(ring.acquire("hot-user"));
+        }
+
+        // ceil(1.25 * 40 / 4) == 13
+        assertThat(ring.load(owner)).isLessThanOrEqualTo(13);
+        for (int n = 0; n < 4; n++) {
+            assertThat(ring.load("node-" + n)).isLessThanOrEqualTo(13);
+        }
+        assertThat(assigned).contains(owner);
+
+        assigned.forEach(ring::release);
+        assertThat(ring.getNode("hot-user")).isEqualTo(owner);
+        for (int n = 0; n < 4; n++) {
+            assertThat(ring.load("node-" + n)).isZero();
+        }
+    }
+
+    @Test
+    void filteredAcquireSkipsRejectedNodes() {
+        BoundedLoadHashRing<String> ring = new BoundedLoadHashRing<>();
+        for (int n = 0; n < 4; n++) {
+            ring.addNode(String.valueOf(n), "node-" + n);
+        }
+        String owner = ring.getNode("user-1");
+
+        String node = ring.acquire("user-1", candidate -> !candidate.equals(owner));
+
+        assertThat(node).isNotEqualTo(owner).isEqualTo(ring.getNodes("user-1", 2).get(1));
+        assertThat(ring.load(node)).isEqualTo(1);
+        assertThat(ring.acquire("user-1", candidate -> false)).isNull();
+    }
+
+    @Test
+    void removingNodeDropsItsLoad() {
+        BoundedLoadHashRing<String> ring = new BoundedLoadHashRing<>();
+        ring.addNode("0", "node-0");
+        ring.addNode("1", "node-1");
+        String node = ring.acquire("user-1");
+
+        ring.removeNode(node.equals("node-0") ? "0" : "1");
+        ring.release(node);
+
+        assertThat(ring.size()).isEqualTo(1);
+        assertThat(ring.load(node)).isZero();
+    }
+}
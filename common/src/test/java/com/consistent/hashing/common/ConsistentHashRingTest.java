@@ -2,7 +2,11 @@ package com.consistent.hashing.common;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -106,6 +110,160 @@ class ConsistentHashRingTest {
         assertThat(ring.size()).isEqualTo(1);
     }
 
+    @Test
+    void addingNodeMovesRoughlyOneOverNKeys() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>();
+        for (int n = 0; n < 4; n++) {
+            ring.addNode(String.valueOf(n), "node-" + n);
+        }
+
+        int keys = 10_000;
+        Map<String, String> before = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            before.put(String.valueOf(i), ring.getNode(String.valueOf(i)));
+        }
+
+        ring.addNode("4", "node-4");
+
+        int moved = 0;
+        for (int i = 0; i < keys; i++) {
+            String after = ring.getNode(String.valueOf(i));
+            if (!after.equals(before.get(String.valueOf(i)))) {
+                // Keys may only move to the new node, never between existing ones
+                assertThat(after).isEqualTo("node-4");
+                moved++;
+            }
+        }
+        // Ideal is 1/5 of the keys
+        assertThat(moved).isBetween(keys / 10, keys * 3 / 10);
+    }
+
+    @Test
+    void raisingWeightOnlyMovesKeysToThatNode() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>();
+        for (int n = 0; n < 4; n++) {
+            ring.addNode(String.valueOf(n), "node-" + n);
+        }
+        int keys = 10_000;
+        Map<String, String> before = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            before.put(String.valueOf(i), ring.getNode(String.valueOf(i)));
+        }
+
+        ring.addNode("2", "node-2", 2.0);
+
+        int moved = 0;
+        for (int i = 0; i < keys; i++) {
+            String after = ring.getNode(String.valueOf(i));
+            if (!after.equals(before.get(String.valueOf(i)))) {
+                assertThat(after).isEqualTo("node-2");
+                moved++;
+            }
+        }
+        // node-2 grows from 1/4 to 2/5 of the ring
+        assertThat(moved).isBetween(keys / 10, keys / 5);
+        assertThat(ring.snapshot().points()).isEqualTo(5 * ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    }
+
+    @Test
+    void pointBudgetScalesEveryNodeAlike() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(10, 1000);
+        ring.addNode("0", "node-0", 1e9);
+        ring.addNode("1", "node-1", 3e9);
+
+        assertThat(ring.snapshot().points()).isBetween(990, 1000);
+        int keys = 20_000;
+        int heavy = 0;
+        for (int i = 0; i < keys; i++) {
+            heavy += ring.getNode(String.valueOf(i)).equals("node-1") ? 1 : 0;
+        }
+        assertThat(heavy).isBetween(keys * 2 / 3, keys * 5 / 6);
+
+        ring.removeNode("1");
+        assertThat(ring.snapshot().points()).isEqualTo(1000);
+        // A share that rounds to no points still gets one
+        ring.addNode("2", "node-2", 2.0);
+        assertThat(ring.snapshot().points()).isEqualTo(1001);
+    }
+
+    @Test
+    void virtualNodesEvenOutLoad() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(200);
+        int nodes = 10;
+        for (int n = 0; n < nodes; n++) {
+            ring.addNode(String.valueOf(n), "node-" + n);
+        }
+
+        int keys = 100_000;
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            counts.merge(ring.getNode("user-" + i), 1, Integer::sum);
+        }
+
+        assertThat(counts).hasSize(nodes);
+        int mean = keys / nodes;
+        assertThat(counts.values()).allSatisfy(c -> assertThat(c).isBetween(mean * 7 / 10, mean * 13 / 10));
+    }
+
+    @Test
+    void sequenceIdsNeedNotBeContiguous() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>();
+        ring.addNode("17", "node-17");
+        ring.addNode("230", "node-230");
+
+        Set<String> results = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            results.add(ring.getNode(String.valueOf(i)));
+        }
+        assertThat(results).containsExactlyInAnyOrder("node-17", "node-230");
+    }
+
+    @Test
+    void readdingNodeReplacesPreviousValue() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>();
+        ring.addNode("1", "old");
+        ring.addNode("1", "new");
+
+        assertThat(ring.size()).isEqualTo(1);
+        assertThat(ring.getNode("any")).isEqualTo("new");
+    }
+
+    @Test
+    void removingNodeMatchesRingBuiltWithoutIt() {
+        ConsistentHashRing<String> churned = new ConsistentHashRing<>();
+        ConsistentHashRing<String> fresh = new ConsistentHashRing<>();
+        for (int n = 0; n < 5; n++) {
+            churned.addNode(String.valueOf(n), "node-" + n);
+        }
+        churned.removeNode("2");
+        churned.removeNode("4");
+        churned.addNode("4", "node-4");
+        for (int n : new int[]{0, 1, 3, 4}) {
+            fresh.addNode(String.valueOf(n), "node-" + n);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            String key = "user-" + i;
+            assertThat(churned.getNode(key)).isEqualTo(fresh.getNode(key));
+        }
+    }
+
+    @Test
+    void ceilingIndexMatchesBinarySearch() {
+        Random random = new Random(42);
+        for (int length = 1; length < 200; length++) {
+            long[] a = random.longs(length).sorted().distinct().toArray();
+            for (int probe = 0; probe < 50; probe++) {
+                long key = probe % 5 == 0 ? a[random.nextInt(a.length)] : random.nextLong();
+                int expected = Arrays.binarySearch(a, key);
+                if (expected < 0) {
+                    expected = -expected - 1;
+                }
+                assertThat(ConsistentHashRing.ceilingIndex(a, key)).isEqualTo(expected);
+            }
+        }
+    }
+
     @Test
     void threadSafety() throws InterruptedException {
         ConsistentHashRing<String> ring = new ConsistentHashRing<>();
@@ -0,0 +1,31 @@
+package com.consistent.hashing.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Murmur3Test {
+
+    @Test
+    void matchesReferenceVector() {
+        byte[] data = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+        assertThat(Murmur3.hash64(data, 0, data.length, 0)).isEqualTo(0xe34bbc7bbc071b6cL);
+    }
+
+    @Test
+    void emptyInputHashesToZeroWithZeroSeed() {
+        assertThat(Murmur3.hash64("")).isZero();
+        assertThat(Murmur3.hash64(new byte[0], 0, 0, 0)).isZero();
+    }
+
+    @Test
+    void charSequenceVariantMatchesUtf16LeBytes() {
+        for (String s : new String[]{"a", "user-42", "12345678", "550e8400-e29b-41d4-a716-446655440000",
+                "ünïcödé 中文", "a-much-longer-key-that-spans-several-sixteen-byte-blocks"}) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_16LE);
+            assertThat(Murmur3.hash64(s, 7)).as(s).isEqualTo(Murmur3.hash64(bytes, 0, bytes.length, 7));
+        }
+    }
+}
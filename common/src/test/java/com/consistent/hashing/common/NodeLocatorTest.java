@@ -0,0 +1,239 @@
+package com.consistent.hashing.common;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NodeLocatorTest {
+
+    @ParameterizedTest
+    @EnumSource(HashAlgorithm.class)
+    void emptyLocatorReturnsNull(HashAlgorithm algorithm) {
+        NodeLocator<String> locator = algorithm.create(100);
+        assertThat(locator.getNode("user-1")).isNull();
+        assertThat(locator.size()).isZero();
+    }
+
+    @ParameterizedTest
+    @EnumSource(HashAlgorithm.class)
+    void routesDeterministicallyToEveryNode(HashAlgorithm algorithm) {
+        NodeLocator<String> locator = algorithm.create(100);
+        for (int n = 0; n < 4; n++) {
+            locator.addNode(String.valueOf(n), "node-" + n);
+        }
+
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String key = "user-" + i;
+            String node = locator.getNode(key);
+            assertThat(locator.getNode(key)).isEqualTo(node);
+            seen.add(node);
+        }
+        assertThat(locator.size()).isEqualTo(4);
+        assertThat(seen).containsExactlyInAnyOrder("node-0", "node-1", "node-2", "node-3");
+    }
+
+    @ParameterizedTest
+    @EnumSource(HashAlgorithm.class)
+    void removedNodeReceivesNoKeys(HashAlgorithm algorithm) {
+        NodeLocator<String> locator = algorithm.create(100);
+        for (int n = 0; n < 3; n++) {
+            locator.addNode(String.valueOf(n), "node-" + n);
+        }
+        locator.removeNode("1");
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(locator.getNode("user-" + i)).isIn("node-0", "node-2");
+        }
+        assertThat(locator.size()).isEqualTo(2);
+    }
+
+    @ParameterizedTest
+    @EnumSource(HashAlgorithm.class)
+    void appendingNodeMovesKeysOnlyToIt(HashAlgorithm algorithm) {
+        NodeLocator<String> locator = algorithm.create(100);
+        for (int n = 0; n < 5; n++) {
+            locator.addNode(String.valueOf(n), "node-" + n);
+        }
+        int keys = 10_000;
+        Map<String, String> before = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            before.put("user-" + i, locator.getNode("user-" + i));
+        }
+
+        locator.addNode("5", "node-5");
+
+        int moved = 0;
+        for (int i = 0; i < keys; i++) {
+            String after = locator.getNode("user-" + i);
+            if (!after.equals(before.get("user-" + i))) {
+                moved++;
+                if (algorithm != HashAlgorithm.MAGLEV) {
+                    assertThat(after).isEqualTo("node-5");
+                }
+            }
+        }
+        // Ideal is 1/6 of the keys
+        assertThat(moved).isBetween(keys / 12, keys / 4);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = HashAlgorithm.class, names = {"JUMP", "RENDEZVOUS", "MAGLEV"})
+    void unweightedAlgorithmsBalanceClosely(HashAlgorithm algorithm) {
+        NodeLocator<String> locator = algorithm.create(100);
+        int nodes = 8;
+        for (int n = 0; n < nodes; n++) {
+            locator.addNode(String.valueOf(n), "node-" + n);
+        }
+        int keys = 80_000;
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            counts.merge(locator.getNode("user-" + i), 1, Integer::sum);
+        }
+        int mean = keys / nodes;
+        assertThat(counts.values()).allSatisfy(c -> assertThat(c).isBetween(mean * 9 / 10, mean * 11 / 10));
+    }
+
+    @ParameterizedTest
+    @EnumSource(HashAlgorithm.class)
+    void preferenceListStartsWithOwnerAndIsDistinct(HashAlgorithm algorithm) {
+        NodeLocator<String> locator = algorithm.create(100);
+        assertThat(locator.getNodes("user-1", 3)).isEmpty();
+        for (int n = 0; n < 5; n++) {
+            locator.addNode(String.valueOf(n), "node-" + n);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            String key = "user-" + i;
+            List<String> nodes = locator.getNodes(key, 3);
+            assertThat(nodes).hasSize(3).doesNotHaveDuplicates();
+            if (algorithm != HashAlgorithm.BOUNDED_LOAD) {
+                assertThat(nodes.get(0)).isEqualTo(locator.getNode(key));
+            }
+            assertThat(locator.getNodes(key, 3)).isEqualTo(nodes);
+        }
+        assertThat(locator.getNodes("user-1", 10)).hasSize(5);
+    }
+
+    @ParameterizedTest
+    @EnumSource(HashAlgorithm.class)
+    void fillsCallerArrayWithPreferenceList(HashAlgorithm algorithm) {
+        NodeLocator<String> locator = algorithm.create(100);
+        String[] out = new String[3];
+        assertThat(locator.getNodes("user-1", out)).isZero();
+        locator.addNode("0", "node-0");
+        locator.addNode("1", "node-1");
+
+        assertThat(locator.getNodes("user-1", out)).isEqualTo(2);
+        assertThat(List.of(out[0], out[1])).isEqualTo(locator.getNodes("user-1", 3));
+
+        for (int n = 2; n < 6; n++) {
+            locator.addNode(String.valueOf(n), "node-" + n);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertThat(locator.getNodes("user-" + i, out)).isEqualTo(3);
+            assertThat(List.of(out)).isEqualTo(locator.getNodes("user-" + i, 3));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = HashAlgorithm.class, names = {"RING", "RENDEZVOUS", "MAGLEV", "BOUNDED_LOAD"})
+    void weightsSetTheShareOfKeys(HashAlgorithm algorithm) {
+        NodeLocator<String> locator = algorithm.create(160);
+        locator.addNode("0", "node-0", 1.0);
+        locator.addNode("1", "node-1", 1.0);
+        locator.addNode("2", "node-2", 2.0);
+
+        int keys = 40_000;
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            counts.merge(locator.getNode("user-" + i), 1, Integer::sum);
+        }
+        assertThat(counts.get("node-2")).isBetween(keys * 2 / 5, keys * 3 / 5);
+        assertThat(counts.get("node-0")).isBetween(keys / 6, keys / 3);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = HashAlgorithm.class, names = {"RING", "RENDEZVOUS", "MAGLEV", "BOUNDED_LOAD"})
+    void largeWeightsKeepTheirProportions(HashAlgorithm algorithm) {
+        // Processor counts of a mixed fleet
+        NodeLocator<String> locator = algorithm.create(160);
+        locator.addNode("0", "node-0", 32.0);
+        locator.addNode("1", "node-1", 64.0);
+        locator.addNode("2", "node-2", 128.0);
+
+        int keys = 40_000;
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            counts.merge(locator.getNode("user-" + i), 1, Integer::sum);
+        }
+        assertThat(counts.get("node-2")).isBetween(keys * 4 / 10, keys * 3 / 4);
+        assertThat(counts.get("node-0")).isBetween(keys / 14, keys / 5);
+    }
+
+    @ParameterizedTest
+    @EnumSource(HashAlgorithm.class)
+    void rejectsNonPositiveWeights(HashAlgorithm algorithm) {
+        NodeLocator<String> locator = algorithm.create(100);
+        if (algorithm != HashAlgorithm.JUMP) {
+            assertThatThrownBy(() -> locator.addNode("0", "node-0", 0.0))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(HashAlgorithm.class)
+    void batchRoutesLikeTheSameChangesOneByOne(HashAlgorithm algorithm) {
+        NodeLocator<String> sequential = algorithm.create(100);
+        NodeLocator<String> batched = algorithm.create(100);
+        for (int n = 0; n < 4; n++) {
+            sequential.addNode(String.valueOf(n), "node-" + n);
+            batched.addNode(String.valueOf(n), "node-" + n);
+        }
+
+        sequential.removeNode("1");
+        sequential.removeNode("3");
+        sequential.addNode("4", "node-4", 2.0);
+        sequential.addNode("5", "node-5");
+        sequential.addNode("2", "node-2b");
+        Map<String, WeightedNode<String>> added = new HashMap<>();
+        added.put("4", new WeightedNode<>("node-4", 2.0));
+        added.put("5", new WeightedNode<>("node-5"));
+        added.put("2", new WeightedNode<>("node-2b"));
+        batched.apply(added, List.of("1", "3", "2"));
+
+        assertThat(batched.size()).isEqualTo(4);
+        for (int i = 0; i < 2000; i++) {
+            assertThat(batched.getNode("user-" + i)).isEqualTo(sequential.getNode("user-" + i));
+            assertThat(batched.getNodes("user-" + i, 3)).isEqualTo(sequential.getNodes("user-" + i, 3));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(HashAlgorithm.class)
+    void invalidBatchChangesNothing(HashAlgorithm algorithm) {
+        NodeLocator<String> locator = algorithm.create(100);
+        locator.addNode("0", "node-0");
+
+        assertThatThrownBy(() -> locator.apply(Map.of("1", new WeightedNode<>("node-1", -1.0)), List.of("0")))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(locator.size()).isEqualTo(1);
+        assertThat(locator.getNode("user-1")).isEqualTo("node-0");
+    }
+
+    @ParameterizedTest
+    @EnumSource(HashAlgorithm.class)
+    void parsesConfigurationNames(HashAlgorithm algorithm) {
+        String name = algorithm.name().toLowerCase().replace('_', '-');
+        assertThat(HashAlgorithm.fromName(name)).isEqualTo(algorithm);
+    }
+}
@@ -0,0 +1,56 @@
+package com.consistent.hashing.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RegistrationPayloadTest {
+
+    @Test
+    void compactFormRoundTrips() {
+        RegistrationPayload payload = new RegistrationPayload("api-service-3", 65535, 2.5);
+
+        byte[] data = payload.encode();
+
+        assertThat(data).hasSize(1 + 8 + 2 + "api-service-3".length());
+        assertThat(RegistrationPayload.isCompact(data)).isTrue();
+        assertThat(RegistrationPayload.decode(data)).isEqualTo(payload);
+    }
+
+    @Test
+    void jsonIsNotMistakenForTheCompactForm() {
+        byte[] json = "{\"host\":\"api\",\"port\":8081}".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(RegistrationPayload.isCompact(json)).isFalse();
+        assertThat(RegistrationPayload.isCompact(new byte[0])).isFalse();
+        assertThatThrownBy(() -> RegistrationPayload.decode(json)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void parseReadsBothForms() {
+        RegistrationPayload payload = new RegistrationPayload("api-1", 8081, 2.0);
+        byte[] json = "{\"host\":\"api-1\",\"port\":8081}".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(RegistrationPayload.parse(payload.encode())).isEqualTo(payload);
+        assertThat(RegistrationPayload.parse(payload.toJson())).isEqualTo(payload);
+        assertThat(RegistrationPayload.parse(json)).isEqualTo(new RegistrationPayload("api-1", 8081, 1.0));
+        assertThat(new RegistrationPayload("api-1", 8081, -1).ringWeight()).isEqualTo(1.0);
+        assertThat(new RegistrationPayload("api-1", 8081, 64).ringWeight()).isEqualTo(64.0);
+        assertThatThrownBy(() -> RegistrationPayload.parse("{\"host\":\"api-1\"}".getBytes(StandardCharsets.UTF_8)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> RegistrationPayload.parse("not json".getBytes(StandardCharsets.UTF_8)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void nodeKeyOfSequentialAndNamedPaths() {
+        assertThat(RegistrationPayload.nodeKey("/services/api/instance-0000000012")).isEqualTo("12");
+        assertThat(RegistrationPayload.nodeKey("/services/api/node-api-b")).isEqualTo("api-b");
+        assertThat(RegistrationPayload.nodeKey("/services/api/node-7")).isNull();
+        assertThat(RegistrationPayload.nodeKey("/services/api")).isNull();
+        assertThat(RegistrationPayload.nodeKey("/services/other/instance-0000000001")).isNull();
+    }
+}
@@ -0,0 +1,82 @@
+package com.consistent.hashing.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RingAnalyzerTest {
+
+    @Test
+    void reportsSharesAndMovementOfAnEvenRing() {
+        RingAnalyzer analyzer = new RingAnalyzer(HashAlgorithm.RING, 160, RingAnalyzer.uniformNodes(8), "node-3");
+
+        RingAnalyzer.Report report = analyzer.analyze(RingAnalyzer.sequentialKeys(200_000), 4);
+
+        assertThat(report.keys()).isEqualTo(200_000);
+        assertThat(report.nodes()).hasSize(8)
+                .allSatisfy(node -> assertThat(node.load()).isBetween(0.8, 1.2));
+        assertThat(report.nodes().stream().mapToLong(RingAnalyzer.NodeShare::keys).sum()).isEqualTo(200_000);
+        assertThat(report.stdDev()).isBetween(0.0, 0.15);
+        assertThat(report.maxMeanRatio()).isBetween(1.0, 1.2);
+        // Consistent hashing only moves keys to the joining node and from the leaving one
+        assertThat(report.join().idealFraction()).isEqualTo(1.0 / 9);
+        assertThat(report.join().movedFraction()).isBetween(0.08, 0.14);
+        assertThat(report.leave().node()).isEqualTo("node-3");
+        assertThat(report.leave().movedFraction()).isEqualTo(report.nodes().get(3).share());
+    }
+
+    @Test
+    void loadIsRelativeToTheWeightedShare() {
+        Map<String, Double> nodes = Map.of("small", 1.0, "large", 3.0);
+        RingAnalyzer analyzer = new RingAnalyzer(HashAlgorithm.RENDEZVOUS, 0, new TreeMap<>(nodes), null);
+
+        RingAnalyzer.Report report = analyzer.analyze(RingAnalyzer.sequentialKeys(100_000), 2);
+
+        RingAnalyzer.NodeShare large = report.nodes().get(0);
+        assertThat(large.node()).isEqualTo("large");
+        assertThat(large.fairShare()).isEqualTo(0.75);
+        assertThat(large.share()).isBetween(0.73, 0.77);
+        assertThat(large.load()).isBetween(0.97, 1.03);
+        // Removing the only other node hands all of its keys over
+        assertThat(report.leave().node()).isEqualTo("large");
+        assertThat(report.leave().movedFraction()).isEqualTo(large.share());
+    }
+
+    @Test
+    void singleNodeLosesEveryKeyWhenItLeaves() {
+        RingAnalyzer.Report report = new RingAnalyzer(HashAlgorithm.MAGLEV, 0, RingAnalyzer.uniformNodes(1), null)
+                .analyze(RingAnalyzer.sequentialKeys(1000), 1);
+
+        assertThat(report.nodes().get(0).load()).isEqualTo(1.0);
+        assertThat(report.leave().movedFraction()).isEqualTo(1.0);
+    }
+
+    @Test
+    void unknownLeavingNodeIsRejected() {
+        assertThatThrownBy(() -> new RingAnalyzer(HashAlgorithm.RING, 10, RingAnalyzer.uniformNodes(2), "node-9"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void cliParsesWeightedNodesAndPrintsTheReport() {
+        Map<String, Double> nodes = RingAnalysisCli.parseNodes("api-0, api-1:2.5");
+        assertThat(nodes).containsExactly(Map.entry("api-0", 1.0), Map.entry("api-1", 2.5));
+        assertThat(RingAnalysisCli.parseNodes("3")).containsOnlyKeys("node-0", "node-1", "node-2");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RingAnalysisCli.print(new RingAnalyzer(HashAlgorithm.JUMP, 0, nodes, "api-1")
+                .analyze(RingAnalyzer.sequentialKeys(1000), 1), new PrintStream(out, true, StandardCharsets.UTF_8));
+
+        assertThat(out.toString(StandardCharsets.UTF_8))
+                .contains("jump, 0 virtual nodes, 1,000 keys")
+                .contains("api-1")
+                .contains("leave of api-1 moves");
+    }
+}
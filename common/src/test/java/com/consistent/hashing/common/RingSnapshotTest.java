@@ -0,0 +1,97 @@
+package com.consistent.hashing.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class RingSnapshotTest {
+
+    @Test
+    void movedRangesCoverExactlyTheKeysThatMoved() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(50);
+        for (int n = 0; n < 4; n++) {
+            ring.addNode(String.valueOf(n), "node-" + n);
+        }
+        RingSnapshot<String> before = ring.snapshot();
+        ring.addNode("4", "node-4");
+        ring.removeNode("1");
+        RingSnapshot<String> after = ring.snapshot();
+
+        List<MovedRange<String>> moved = before.movedRanges(after);
+
+        for (int i = 0; i < 20_000; i++) {
+            long hash = ConsistentHashRing.hash("user-" + i);
+            String from = before.ownerOf(hash);
+            String to = after.ownerOf(hash);
+            List<MovedRange<String>> matching = moved.stream()
+                    .filter(m -> m.range().contains(hash))
+                    .toList();
+            if (from.equals(to)) {
+                assertThat(matching).isEmpty();
+            } else {
+                assertThat(matching).singleElement()
+                        .satisfies(m -> {
+                            assertThat(m.from()).isEqualTo(from);
+                            assertThat(m.to()).isEqualTo(to);
+                        });
+            }
+        }
+        assertThat(moved).allSatisfy(m ->
+                assertThat(m.from().equals("node-1") || m.to().equals("node-4")).isTrue());
+    }
+
+    @Test
+    void unchangedRingHasNoMovedRanges() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>();
+        ring.addNode("0", "node-0");
+        ring.addNode("1", "node-1");
+
+        assertThat(ring.snapshot().movedRanges(ring.snapshot())).isEmpty();
+    }
+
+    @Test
+    void firstNodeTakesTheWholeRing() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(10);
+        RingSnapshot<String> empty = ring.snapshot();
+        ring.addNode("0", "node-0");
+
+        List<MovedRange<String>> moved = empty.movedRanges(ring.snapshot());
+
+        assertThat(moved).singleElement().satisfies(m -> {
+            assertThat(m.from()).isNull();
+            assertThat(m.to()).isEqualTo("node-0");
+            assertThat(m.range().fraction()).isEqualTo(1.0);
+        });
+    }
+
+    @Test
+    void movedFractionIsRoughlyOneOverN() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>();
+        for (int n = 0; n < 9; n++) {
+            ring.addNode(String.valueOf(n), "node-" + n);
+        }
+        RingSnapshot<String> before = ring.snapshot();
+        ring.addNode("9", "node-9");
+
+        double fraction = before.movedRanges(ring.snapshot()).stream()
+                .mapToDouble(m -> m.range().fraction())
+                .sum();
+        assertThat(fraction).isCloseTo(0.1, within(0.04));
+    }
+
+    @Test
+    void hashRangeWrapsAroundTheRing() {
+        HashRange wrapping = new HashRange(Long.MAX_VALUE - 10, Long.MIN_VALUE + 10);
+        assertThat(wrapping.contains(Long.MAX_VALUE)).isTrue();
+        assertThat(wrapping.contains(Long.MIN_VALUE)).isTrue();
+        assertThat(wrapping.contains(Long.MAX_VALUE - 10)).isFalse();
+        assertThat(wrapping.contains(0)).isFalse();
+        assertThat(wrapping.fraction()).isCloseTo(21 / 0x1p64, within(1e-25));
+
+        HashRange half = new HashRange(Long.MIN_VALUE, 0);
+        assertThat(half.fraction()).isCloseTo(0.5, within(1e-12));
+    }
+}
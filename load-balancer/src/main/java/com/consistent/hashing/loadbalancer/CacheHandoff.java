@@ -0,0 +1,69 @@
+package com.consistent.hashing.loadbalancer;
+
+import com.consistent.hashing.common.HashRange;
+import com.consistent.hashing.common.MovedRange;
+import com.consistent.hashing.common.ServiceInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Warms new owners after a ring change. For every pair of previous and new
+ * owner, the new owner is asked to pull the cached results for exactly the hash
+ * ranges that moved between them, so those users don't pay a cold recompute.
+ */
+@Component
+public class CacheHandoff {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheHandoff.class);
+
+    private final WebClient webClient;
+    private final boolean enabled;
+
+    public CacheHandoff(WebClient.Builder webClientBuilder,
+                        @Value("${handoff.enabled:true}") boolean enabled) {
+        this.webClient = webClientBuilder.build();
+        this.enabled = enabled;
+    }
+
+    @EventListener
+    public void onRingChanged(RingChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        Map<ServiceInstance, Map<ServiceInstance, List<HashRange>>> byNewOwner = new LinkedHashMap<>();
+        for (MovedRange<ServiceInstance> moved : event.moved()) {
+            if (moved.from() != null && moved.to() != null) {
+                byNewOwner.computeIfAbsent(moved.to(), to -> new LinkedHashMap<>())
+                        .computeIfAbsent(moved.from(), from -> new ArrayList<>())
+                        .add(moved.range());
+            }
+        }
+        byNewOwner.forEach((to, sources) -> sources.forEach((from, ranges) -> pull(to, from, ranges)));
+    }
+
+    private void pull(ServiceInstance to, ServiceInstance from, List<HashRange> ranges) {
+        webClient.post()
+                .uri("http://" + to.address() + "/internal/cache/pull")
+                .bodyValue(new PullRequest(from.address(), ranges))
+                .retrieve()
+                .bodyToMono(PullResult.class)
+                .subscribe(
+                        result -> log.info("Handed off {} cached results in {} ranges from instance {} to {}",
+                                result.imported(), ranges.size(), from.id(), to.id()),
+                        error -> log.warn("Cache hand-off from instance {} to {} failed: {}",
+                                from.id(), to.id(), error.getMessage()));
+    }
+
+    record PullRequest(String source, List<HashRange> ranges) {}
+
+    record PullResult(int imported) {}
+}
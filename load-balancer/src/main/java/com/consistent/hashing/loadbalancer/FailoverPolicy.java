@@ -0,0 +1,143 @@
+package com.consistent.hashing.loadbalancer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when the proxy may send a request to more than one instance.
+ * <p>
+ * Hedges fire after the observed p95 time-to-headers of upstream responses,
+ * clamped to {@code [min-delay, max-delay]}, so roughly one request in twenty
+ * is duplicated while the cluster is healthy. Retries follow connect
+ * failures, where the request never reached the instance, and, for idempotent
+ * requests without a body, 5xx responses and response timeouts.
+ * <p>
+ * Both draw from one token bucket: every request deposits {@code budget.ratio}
+ * of a token and every hedge or retry spends a whole one. When instances fail
+ * en masse the bucket drains and extra attempts stop instead of multiplying the
+ * load on whatever is left.
+ */
+@Component
+public class FailoverPolicy {
+
+    // Balances are kept in thousandths of a token
+    private static final long TOKEN = 1000;
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean hedgeEnabled;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private final int maxRetries;
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+    private final Timer upstreamLatency;
+    private final Counter hedges;
+    private final Counter retries;
+    private final Counter exhausted;
+
+    private volatile long hedgeDelayNanos;
+    private volatile long refreshedAt;
+
+    public FailoverPolicy(@Value("${hedge.enabled:false}") boolean hedgeEnabled,
+                          @Value("${hedge.min-delay:5ms}") Duration minDelay,
+                          @Value("${hedge.max-delay:500ms}") Duration maxDelay,
+                          @Value("${retry.max-attempts:1}") int maxRetries,
+                          @Value("${retry.budget.ratio:0.1}") double budgetRatio,
+                          @Value("${retry.budget.reserve:10}") int budgetReserve,
+                          MeterRegistry meterRegistry) {
+        this.hedgeEnabled = hedgeEnabled;
+        this.minDelayNanos = minDelay.toNanos();
+        this.maxDelayNanos = Math.max(maxDelay.toNanos(), minDelayNanos);
+        this.maxRetries = Math.max(maxRetries, 0);
+        this.deposit = Math.round(budgetRatio * TOKEN);
+        // Room to absorb a burst of failures after a quiet spell, but no more
+        this.capacity = Math.max(budgetReserve, 1) * TOKEN * 10;
+        this.balance = new AtomicLong(budgetReserve * TOKEN);
+        this.hedgeDelayNanos = maxDelayNanos;
+        this.upstreamLatency = Timer.builder("proxy.upstream.latency")
+                .description("Time until upstream response headers arrive")
+                .publishPercentiles(0.95)
+                .register(meterRegistry);
+        this.hedges = Counter.builder("proxy.upstream.extra.attempts").tag("kind", "hedge")
+                .register(meterRegistry);
+        this.retries = Counter.builder("proxy.upstream.extra.attempts").tag("kind", "retry")
+                .register(meterRegistry);
+        this.exhausted = Counter.builder("proxy.upstream.budget.exhausted")
+                .description("Hedges and retries skipped because the budget was spent")
+                .register(meterRegistry);
+    }
+
+    public boolean hedgeEnabled() {
+        return hedgeEnabled;
+    }
+
+    public int maxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * How many instances beyond the first a request may be sent to.
+     */
+    public int maxExtraAttempts() {
+        return maxRetries + (hedgeEnabled ? 1 : 0);
+    }
+
+    /**
+     * Current hedge delay: the p95 time-to-headers, recomputed at most once a second.
+     */
+    public Duration hedgeDelay() {
+        long now = System.nanoTime();
+        if (now - refreshedAt > REFRESH_NANOS) {
+            refreshedAt = now;
+            double p95 = Double.NaN;
+            for (ValueAtPercentile value : upstreamLatency.takeSnapshot().percentileValues()) {
+                p95 = value.value(TimeUnit.NANOSECONDS);
+            }
+            // No traffic in the window yet: be conservative
+            long delay = Double.isNaN(p95) || p95 <= 0 ? maxDelayNanos : (long) p95;
+            hedgeDelayNanos = Math.min(Math.max(delay, minDelayNanos), maxDelayNanos);
+        }
+        return Duration.ofNanos(hedgeDelayNanos);
+    }
+
+    /**
+     * Credits the budget for a request about to be proxied.
+     */
+    public void onRequest() {
+        balance.accumulateAndGet(deposit, (current, d) -> Math.min(current + d, capacity));
+    }
+
+    public void recordLatency(long nanos) {
+        upstreamLatency.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public boolean tryHedge() {
+        return spend(hedges);
+    }
+
+    public boolean tryRetry() {
+        return spend(retries);
+    }
+
+    private boolean spend(Counter attempts) {
+        long current;
+        do {
+            current = balance.get();
+            if (current < TOKEN) {
+                exhausted.increment();
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - TOKEN));
+        attempts.increment();
+        return true;
+    }
+}
@@ -0,0 +1,210 @@
+package com.consistent.hashing.loadbalancer;
+
+import com.consistent.hashing.common.Murmur3;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Streaming heavy-hitter detection over {@code X-User-Id}.
+ * <p>
+ * Every request increments a Count-Min Sketch, whose estimate never
+ * undercounts and overcounts by at most {@code total * e / width} with
+ * probability {@code 1 - e^-depth}. Keys whose estimate beats the smallest of
+ * the current top {@code capacity} enter the top-K table, so its lock is only
+ * taken by keys that are already heavy, and by those only as their count
+ * grows. All counts are halved every {@code window} by a background task,
+ * which turns them into decayed request rates: a user that stops being hot
+ * drops out within a few windows.
+ * <p>
+ * A key is hot while its estimate is at least {@code min-requests} and at least
+ * {@code threshold} of all requests.
+ */
+@Component
+public class HotKeyTracker {
+
+    private final int depth;
+    private final int mask;
+    private final AtomicLongArray sketch;
+    private final AtomicLong total = new AtomicLong();
+    private final int capacity;
+    private final double threshold;
+    private final long minRequests;
+    private final int spread;
+    private final ScheduledExecutorService decayer;
+    private final MultiGauge topGauge;
+    private final Counter spreadRequests;
+
+    // Written with the monitor held; read lock-free by record
+    private final Map<String, Long> top = new ConcurrentHashMap<>();
+    private volatile long topMin;
+    private volatile boolean topFull;
+
+    @Autowired
+    public HotKeyTracker(@Value("${hotkeys.capacity:16}") int capacity,
+                         @Value("${hotkeys.threshold:0.02}") double threshold,
+                         @Value("${hotkeys.min-requests:100}") long minRequests,
+                         @Value("${hotkeys.window:10s}") Duration window,
+                         @Value("${hotkeys.spread:3}") int spread,
+                         @Value("${hotkeys.sketch-width:4096}") int width,
+                         MeterRegistry meterRegistry) {
+        this(capacity, threshold, minRequests, spread, width, meterRegistry,
+                Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("hotkeys-decay").daemon().factory()));
+        long windowNanos = window.toNanos();
+        decayer.scheduleAtFixedRate(this::decay, windowNanos, windowNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Tests pass a null decayer and call decay() themselves
+    HotKeyTracker(int capacity, double threshold, long minRequests, int spread, int width,
+                  MeterRegistry meterRegistry, ScheduledExecutorService decayer) {
+        this.depth = 4;
+        int columns = Integer.highestOneBit(Math.max(width, 64) - 1) << 1;
+        this.mask = columns - 1;
+        this.sketch = new AtomicLongArray(depth * columns);
+        this.capacity = capacity;
+        this.threshold = threshold;
+        this.minRequests = minRequests;
+        this.spread = spread;
+        this.decayer = decayer;
+        this.topGauge = MultiGauge.builder("proxy.hotkeys.requests")
+                .description("Decayed request count of the current top users")
+                .register(meterRegistry);
+        this.spreadRequests = Counter.builder("proxy.hotkeys.spread.requests")
+                .description("Reads of hot users spread over their replicas")
+                .register(meterRegistry);
+        Gauge.builder("proxy.hotkeys.hot", this, tracker -> tracker.snapshot().stream().filter(HotKey::hot).count())
+                .description("Users currently classified as hot")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Counts one request for {@code key} and returns whether the key is hot.
+     */
+    public boolean record(String key) {
+        long hash = Murmur3.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int index = row * (mask + 1) + ((h1 + row * h2) & mask);
+            estimate = Math.min(estimate, sketch.incrementAndGet(index));
+        }
+        long all = total.incrementAndGet();
+
+        if (topFull ? estimate > topMin : estimate >= minRequests / 2) {
+            Long tracked = top.get(key);
+            // Tracked keys refresh their count only every ~6% of growth, which keeps hot keys off the lock
+            if (tracked == null || estimate - tracked > (tracked >>> 4)) {
+                admit(key, estimate);
+            }
+        }
+        return estimate >= minRequests && estimate >= threshold * all;
+    }
+
+    /**
+     * Number of replicas a hot key's reads are spread over.
+     */
+    public int spread() {
+        return spread;
+    }
+
+    public void recordSpread() {
+        spreadRequests.increment();
+    }
+
+    /**
+     * The tracked top users, heaviest first.
+     */
+    public List<HotKey> snapshot() {
+        long all = total.get();
+        List<HotKey> keys = new ArrayList<>();
+        synchronized (this) {
+            top.forEach((key, count) -> keys.add(new HotKey(key, count,
+                    all == 0 ? 0 : (double) count / all,
+                    count >= minRequests && count >= threshold * all)));
+        }
+        keys.sort(Comparator.comparingLong(HotKey::requests).reversed());
+        return keys;
+    }
+
+    public long totalRequests() {
+        return total.get();
+    }
+
+    public double threshold() {
+        return threshold;
+    }
+
+    private synchronized void admit(String key, long estimate) {
+        top.merge(key, estimate, Math::max);
+        if (top.size() > capacity) {
+            String smallest = null;
+            long smallestCount = Long.MAX_VALUE;
+            for (Map.Entry<String, Long> entry : top.entrySet()) {
+                if (entry.getValue() < smallestCount) {
+                    smallest = entry.getKey();
+                    smallestCount = entry.getValue();
+                }
+            }
+            top.remove(smallest);
+        }
+        updateAdmission();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (decayer != null) {
+            decayer.shutdownNow();
+        }
+    }
+
+    /**
+     * Halves every count; runs once per window off the request path. Increments
+     * racing with the halving may be halved or not; either way the error is a
+     * fraction of one window.
+     */
+    void decay() {
+        for (int i = 0; i < sketch.length(); i++) {
+            sketch.getAndUpdate(i, v -> v >>> 1);
+        }
+        total.getAndUpdate(v -> v >>> 1);
+        synchronized (this) {
+            top.replaceAll((key, count) -> count >>> 1);
+            top.values().removeIf(count -> count == 0);
+            updateAdmission();
+        }
+        List<MultiGauge.Row<?>> rows = new ArrayList<>();
+        for (HotKey key : snapshot()) {
+            rows.add(MultiGauge.Row.of(Tags.of("user", key.userId()), key.requests()));
+        }
+        // Bounded by capacity; users that left the top K are dropped
+        topGauge.register(rows, true);
+    }
+
+    // Called with the monitor held
+    private void updateAdmission() {
+        topFull = top.size() >= capacity;
+        topMin = top.values().stream().mapToLong(Long::longValue).min().orElse(0);
+    }
+
+    public record HotKey(String userId, long requests, double share, boolean hot) {}
+}
@@ -0,0 +1,29 @@
+package com.consistent.hashing.loadbalancer;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * {@code /actuator/hotkeys}: the users with the highest decayed request counts
+ * and whether each is currently hot.
+ */
+@Component
+@Endpoint(id = "hotkeys")
+public class HotKeysEndpoint {
+
+    private final HotKeyTracker tracker;
+
+    public HotKeysEndpoint(HotKeyTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @ReadOperation
+    public HotKeys hotKeys() {
+        return new HotKeys(tracker.totalRequests(), tracker.threshold(), tracker.spread(), tracker.snapshot());
+    }
+
+    public record HotKeys(long totalRequests, double threshold, int spread, List<HotKeyTracker.HotKey> keys) {}
+}
@@ -0,0 +1,272 @@
+package com.consistent.hashing.loadbalancer;
+
+import com.consistent.hashing.common.Murmur3;
+import com.consistent.hashing.common.ServiceInstance;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Passive outlier detection from the outcomes of proxied requests.
+ * <p>
+ * Each instance keeps exponentially weighted moving averages of its error rate
+ * and upstream latency. An instance is ejected when it fails
+ * {@code consecutive-failures} requests in a row, when its error rate reaches
+ * {@code error-rate-threshold}, or when its latency is {@code latency-factor}
+ * times the median of its peers. Ejection lasts {@code base-ejection-time} times
+ * the number of ejections so far, up to {@code max-ejection-time}, and never
+ * covers more than {@code max-ejection-percent} of the instances.
+ * <p>
+ * After an ejection the instance is slow-started: over {@code slow-start} it
+ * gets back a growing share of its keys, chosen by key hash so that the same
+ * keys return first and find their cached results.
+ * <p>
+ * Ejection only filters lookups; the ring itself is untouched, so no keys are
+ * reassigned and no cache hand-off runs for a transient fault.
+ */
+@Component
+public class InstanceHealth {
+
+    private static final Logger log = LoggerFactory.getLogger(InstanceHealth.class);
+    private static final long MEDIAN_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double alpha;
+    private final int minRequests;
+    private final int consecutiveFailures;
+    private final double errorRateThreshold;
+    private final double latencyFactor;
+    private final long baseEjectionNanos;
+    private final long maxEjectionNanos;
+    private final int maxEjectionPercent;
+    private final long slowStartNanos;
+    private final MeterRegistry meterRegistry;
+    private final LongSupplier nanoClock;
+    private final Map<ServiceInstance, Stats> stats = new ConcurrentHashMap<>();
+
+    // Instances currently ejected or slow-starting; lets lookups skip filtering
+    private final AtomicInteger recovering = new AtomicInteger();
+    private volatile double medianLatencyNanos = Double.NaN;
+    private volatile long medianRefreshedAt;
+
+    @Autowired
+    public InstanceHealth(@Value("${health.ewma-alpha:0.1}") double alpha,
+                          @Value("${health.min-requests:20}") int minRequests,
+                          @Value("${health.consecutive-failures:5}") int consecutiveFailures,
+                          @Value("${health.error-rate-threshold:0.5}") double errorRateThreshold,
+                          @Value("${health.latency-factor:3.0}") double latencyFactor,
+                          @Value("${health.base-ejection-time:30s}") Duration baseEjectionTime,
+                          @Value("${health.max-ejection-time:300s}") Duration maxEjectionTime,
+                          @Value("${health.max-ejection-percent:50}") int maxEjectionPercent,
+                          @Value("${health.slow-start:30s}") Duration slowStart,
+                          MeterRegistry meterRegistry) {
+        this(alpha, minRequests, consecutiveFailures, errorRateThreshold, latencyFactor, baseEjectionTime,
+                maxEjectionTime, maxEjectionPercent, slowStart, meterRegistry, System::nanoTime);
+    }
+
+    InstanceHealth(double alpha, int minRequests, int consecutiveFailures, double errorRateThreshold,
+                   double latencyFactor, Duration baseEjectionTime, Duration maxEjectionTime,
+                   int maxEjectionPercent, Duration slowStart, MeterRegistry meterRegistry,
+                   LongSupplier nanoClock) {
+        this.alpha = alpha;
+        this.minRequests = minRequests;
+        this.consecutiveFailures = consecutiveFailures;
+        this.errorRateThreshold = errorRateThreshold;
+        this.latencyFactor = latencyFactor;
+        this.baseEjectionNanos = baseEjectionTime.toNanos();
+        this.maxEjectionNanos = Math.max(maxEjectionTime.toNanos(), baseEjectionNanos);
+        this.maxEjectionPercent = maxEjectionPercent;
+        this.slowStartNanos = slowStart.toNanos();
+        this.meterRegistry = meterRegistry;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Records the outcome of one upstream request. {@code failed} covers
+     * connection errors and 5xx responses.
+     */
+    public void record(ServiceInstance instance, long latencyNanos, boolean failed) {
+        Stats s = stats.computeIfAbsent(instance, this::register);
+        long now = nanoClock.getAsLong();
+        refreshMedian(now);
+        synchronized (s) {
+            if (ejected(s, now)) {
+                // Stragglers from before the ejection say nothing new
+                return;
+            }
+            if (s.recovering && now - s.ejectedUntil >= slowStartNanos) {
+                finishRecovery(s);
+            }
+            s.samples++;
+            s.latencyNanos = s.samples == 1 ? latencyNanos : s.latencyNanos + alpha * (latencyNanos - s.latencyNanos);
+            s.errorRate += alpha * ((failed ? 1.0 : 0.0) - s.errorRate);
+            s.consecutiveFailures = failed ? s.consecutiveFailures + 1 : 0;
+
+            String reason = null;
+            if (s.consecutiveFailures >= consecutiveFailures) {
+                reason = s.consecutiveFailures + " consecutive failures";
+            } else if (s.samples >= minRequests && s.errorRate >= errorRateThreshold) {
+                reason = String.format("error rate %.2f", s.errorRate);
+            } else if (s.samples >= minRequests && s.latencyNanos > latencyFactor * medianLatencyNanos) {
+                reason = String.format("latency %.1fms vs. median %.1fms",
+                        s.latencyNanos / 1e6, medianLatencyNanos / 1e6);
+            }
+            if (reason != null && canEject(now)) {
+                eject(instance, s, now, reason);
+            }
+        }
+    }
+
+    /**
+     * Whether lookups should filter instances through {@link #admits} at all.
+     */
+    public boolean degraded() {
+        return recovering.get() > 0;
+    }
+
+    /**
+     * Whether {@code instance} should take the key hashed to {@code keyHash}:
+     * never while ejected, for a growing share of keys while slow-starting.
+     */
+    public boolean admits(ServiceInstance instance, long keyHash) {
+        Stats s = stats.get(instance);
+        if (s == null || !s.recovering) {
+            return true;
+        }
+        long recovered = nanoClock.getAsLong() - s.ejectedUntil;
+        if (recovered < 0) {
+            return false;
+        }
+        if (recovered >= slowStartNanos) {
+            finishRecovery(s);
+            return true;
+        }
+        double share = (double) recovered / slowStartNanos;
+        return (Murmur3.fmix64(keyHash ^ instance.id()) >>> 11) * 0x1.0p-53 < share;
+    }
+
+    public boolean isEjected(ServiceInstance instance) {
+        Stats s = stats.get(instance);
+        return s != null && ejected(s, nanoClock.getAsLong());
+    }
+
+    /**
+     * Drops all state of an instance that left the cluster.
+     */
+    public void forget(ServiceInstance instance) {
+        Stats s = stats.remove(instance);
+        if (s != null) {
+            finishRecovery(s);
+            s.meters.forEach(meterRegistry::remove);
+        }
+    }
+
+    private Stats register(ServiceInstance instance) {
+        Stats s = new Stats();
+        Tags tags = Tags.of("instance", String.valueOf(instance.id()));
+        s.meters.add(Gauge.builder("proxy.instance.ejected", s, st -> ejected(st, nanoClock.getAsLong()) ? 1 : 0)
+                .description("1 while the instance is ejected by outlier detection")
+                .tags(tags).register(meterRegistry));
+        s.meters.add(Gauge.builder("proxy.instance.error.rate", s, st -> st.errorRate)
+                .description("Moving average of the upstream error rate")
+                .tags(tags).register(meterRegistry));
+        s.meters.add(Gauge.builder("proxy.instance.latency.ewma", s, st -> st.latencyNanos / 1e9)
+                .description("Moving average of the upstream latency")
+                .baseUnit("seconds")
+                .tags(tags).register(meterRegistry));
+        s.ejections = Counter.builder("proxy.instance.ejections")
+                .tags(tags).register(meterRegistry);
+        s.meters.add(s.ejections);
+        return s;
+    }
+
+    private boolean canEject(long now) {
+        int ejected = 0;
+        for (Stats s : stats.values()) {
+            if (ejected(s, now)) {
+                ejected++;
+            }
+        }
+        return (ejected + 1) * 100 <= maxEjectionPercent * stats.size();
+    }
+
+    private void eject(ServiceInstance instance, Stats s, long now, String reason) {
+        s.ejectionCount++;
+        long duration = Math.min(baseEjectionNanos * s.ejectionCount, maxEjectionNanos);
+        s.ejectedUntil = now + duration;
+        s.samples = 0;
+        s.errorRate = 0;
+        s.consecutiveFailures = 0;
+        s.ejections.increment();
+        if (!s.recovering) {
+            s.recovering = true;
+            recovering.incrementAndGet();
+        }
+        log.warn("Ejected instance {} for {}ms: {}", instance.id(), TimeUnit.NANOSECONDS.toMillis(duration), reason);
+    }
+
+    private void finishRecovery(Stats s) {
+        synchronized (s) {
+            if (!s.recovering) {
+                return;
+            }
+            s.recovering = false;
+        }
+        recovering.decrementAndGet();
+    }
+
+    private void refreshMedian(long now) {
+        if (now - medianRefreshedAt < MEDIAN_REFRESH_NANOS) {
+            return;
+        }
+        medianRefreshedAt = now;
+        List<Double> latencies = new ArrayList<>(stats.size());
+        for (Stats s : stats.values()) {
+            if (s.samples >= minRequests && !ejected(s, now)) {
+                latencies.add(s.latencyNanos);
+            }
+        }
+        // A median of one or two instances is just those instances
+        if (latencies.size() < 3) {
+            medianLatencyNanos = Double.NaN;
+            return;
+        }
+        double[] sorted = latencies.stream().mapToDouble(Double::doubleValue).toArray();
+        Arrays.sort(sorted);
+        medianLatencyNanos = sorted[sorted.length / 2];
+    }
+
+    private static boolean ejected(Stats s, long now) {
+        return s.recovering && now - s.ejectedUntil < 0;
+    }
+
+    private static final class Stats {
+        // Guarded by this, except the volatile fields read by lookups
+        long samples;
+        double latencyNanos;
+        double errorRate;
+        int consecutiveFailures;
+        int ejectionCount;
+        // Meaningful only while recovering
+        volatile long ejectedUntil;
+        volatile boolean recovering;
+        Counter ejections;
+        final List<Meter> meters = new ArrayList<>();
+    }
+}
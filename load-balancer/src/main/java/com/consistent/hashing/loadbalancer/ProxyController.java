@@ -1,67 +1,464 @@
 package com.consistent.hashing.loadbalancer;
 
 import com.consistent.hashing.common.ServiceInstance;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.timeout.TimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.server.ServerWebExchange;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.net.ConnectException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
 @RestController
 public class ProxyController {
 
     private static final Logger log = LoggerFactory.getLogger(ProxyController.class);
+    private static final List<String> HOP_BY_HOP_HEADERS = List.of(
+            HttpHeaders.CONNECTION, "Keep-Alive", HttpHeaders.PROXY_AUTHENTICATE,
+            HttpHeaders.PROXY_AUTHORIZATION, HttpHeaders.TE, HttpHeaders.TRAILER,
+            HttpHeaders.TRANSFER_ENCODING, HttpHeaders.UPGRADE);
+    // RFC 9110, section 9.2.2
+    private static final Set<HttpMethod> IDEMPOTENT_METHODS = Set.of(
+            HttpMethod.GET, HttpMethod.HEAD, HttpMethod.OPTIONS, HttpMethod.PUT, HttpMethod.DELETE);
 
     private final ServiceRegistry serviceRegistry;
     private final WebClient webClient;
+    private final FailoverPolicy failoverPolicy;
+    private final HotKeyTracker hotKeys;
+    private final ProxyMetrics metrics;
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public ProxyController(ServiceRegistry serviceRegistry, WebClient.Builder webClientBuilder) {
+    public ProxyController(ServiceRegistry serviceRegistry, WebClient.Builder webClientBuilder,
+                           FailoverPolicy failoverPolicy, HotKeyTracker hotKeys, ProxyMetrics metrics) {
         this.serviceRegistry = serviceRegistry;
         this.webClient = webClientBuilder.build();
+        this.failoverPolicy = failoverPolicy;
+        this.hotKeys = hotKeys;
+        this.metrics = metrics;
     }
 
+    /**
+     * Routes the request to the user's instance. The response carries a
+     * {@code Server-Timing} header: {@code route} is the instance lookup,
+     * {@code lb} all time spent in the load balancer before the answering
+     * upstream call started, and {@code upstream} that call's time to response
+     * headers.
+     */
     @RequestMapping("/**")
-    public Mono<byte[]> proxy(ServerWebExchange exchange) {
+    public Mono<Void> proxy(ServerWebExchange exchange) {
+        long start = System.nanoTime();
         ServerHttpRequest request = exchange.getRequest();
+        ServerHttpResponse response = exchange.getResponse();
         String userId = request.getHeaders().getFirst("X-User-Id");
 
+        if (request.getPath().value().startsWith("/internal/")) {
+            // Instance-to-instance endpoints are not part of the public API
+            return reject(response, HttpStatus.NOT_FOUND, "Not found");
+        }
+
         if (userId == null || userId.isBlank()) {
-            exchange.getResponse().setStatusCode(HttpStatus.BAD_REQUEST);
-            return Mono.just("Missing X-User-Id header".getBytes());
+            return reject(response, HttpStatus.BAD_REQUEST, "Missing X-User-Id header");
         }
 
-        ServiceInstance target = serviceRegistry.resolve(userId);
+        boolean read = request.getMethod() == HttpMethod.GET || request.getMethod() == HttpMethod.HEAD;
+        ServiceInstance target;
+        if (hotKeys.record(userId) && read) {
+            // One owner cannot absorb a heavy user; its replicas share the reads
+            target = serviceRegistry.acquireSpread(userId, hotKeys.spread());
+            hotKeys.recordSpread();
+        } else {
+            target = read ? serviceRegistry.acquireRead(userId) : serviceRegistry.acquire(userId);
+        }
         if (target == null) {
-            exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
-            return Mono.just("No available service instances".getBytes());
+            return reject(response, HttpStatus.SERVICE_UNAVAILABLE, "No available service instances");
         }
+        long routeNanos = System.nanoTime() - start;
+        metrics.instance(target).recordRoute(routeNanos);
 
-        String targetUrl = "http://" + target.address() + request.getURI().getPath();
+        String pathAndQuery = request.getURI().getRawPath();
         String query = request.getURI().getRawQuery();
         if (query != null) {
-            targetUrl += "?" + query;
+            pathAndQuery += "?" + query;
         }
 
         log.debug("Routing user={} to instance={} at {}", userId, target.id(), target.address());
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.addAll(request.getHeaders());
-        headers.remove(HttpHeaders.HOST);
-
-        return webClient.method(request.getMethod())
-                .uri(targetUrl)
-                .headers(h -> h.addAll(headers))
-                .body(request.getBody(), byte[].class)
-                .retrieve()
-                .bodyToMono(byte[].class)
-                .doOnNext(body -> {
-                    exchange.getResponse().getHeaders()
-                            .add("X-Routed-To", String.valueOf(target.id()));
+        failoverPolicy.onRequest();
+        List<ServiceInstance> candidates = candidates(userId, target);
+        boolean withBody = hasBody(request.getHeaders());
+        Attempts attempts = new Attempts(exchange, pathAndQuery, candidates, withBody,
+                !withBody && IDEMPOTENT_METHODS.contains(request.getMethod()), failoverPolicy.maxRetries(),
+                start, routeNanos);
+        Mono<ServiceInstance> winner = attempt(attempts, target);
+        if (read && failoverPolicy.hedgeEnabled() && candidates.size() > 1 && !attempts.withBody) {
+            Mono<ServiceInstance> hedge = Mono.delay(failoverPolicy.hedgeDelay())
+                    .filter(tick -> !attempts.answered.get()
+                            && attempts.next.get() < candidates.size()
+                            && failoverPolicy.tryHedge())
+                    .flatMap(tick -> {
+                        int index = attempts.next.getAndIncrement();
+                        return index < candidates.size()
+                                ? extraAttempt(attempts, candidates.get(index))
+                                : Mono.<ServiceInstance>empty();
+                    });
+            winner = Mono.firstWithValue(winner, hedge)
+                    // Surface the real failure rather than "all sources were empty"
+                    .onErrorMap(e -> e instanceof NoSuchElementException || Exceptions.isMultiple(e),
+                            e -> e.getSuppressed().length > 0 ? e.getSuppressed()[0] : e);
+        }
+        metrics.requestStarted();
+        return winner.then().doFinally(signal -> metrics.requestFinished());
+    }
+
+    /**
+     * Splits a JSON array of user IDs by instance, sends each instance its share
+     * as one batch request in parallel, and merges the NDJSON results line by line
+     * in completion order. Each user is routed as a single request would be: ejected
+     * instances are skipped, and with bounded-load each user counts as in flight on
+     * its instance until that instance's share is answered.
+     */
+    @PostMapping(value = "/api/process/batch", produces = "application/x-ndjson")
+    public Flux<String> batch(@RequestBody Mono<List<String>> body, ServerHttpResponse response) {
+        return body.flatMapMany(userIds -> {
+            Map<ServiceInstance, List<String>> byInstance = new LinkedHashMap<>();
+            for (String userId : new LinkedHashSet<>(userIds)) {
+                ServiceInstance instance = serviceRegistry.acquire(userId);
+                if (instance == null) {
+                    byInstance.forEach((acquired, share) -> share.forEach(user -> serviceRegistry.release(acquired)));
+                    return Flux.error(new ResponseStatusException(
+                            HttpStatus.SERVICE_UNAVAILABLE, "No available service instances"));
+                }
+                byInstance.computeIfAbsent(instance, i -> new ArrayList<>()).add(userId);
+            }
+            response.getHeaders().set("X-Routed-To", byInstance.keySet().stream()
+                    .map(instance -> String.valueOf(instance.id()))
+                    .collect(Collectors.joining(",")));
+
+            return Flux.fromIterable(byInstance.entrySet())
+                    .flatMap(share -> sendBatch(share.getKey(), share.getValue()));
+        })
+                .map(line -> line + "\n");
+    }
+
+    /**
+     * Sends {@code instance} its share of a batch and releases the share's users
+     * when the call ends. If the call fails, each user the instance has not
+     * answered yet gets an error line, and the other instances' lines still
+     * stream.
+     */
+    private Flux<String> sendBatch(ServiceInstance instance, List<String> userIds) {
+        ProxyMetrics.InstanceMeters meters = metrics.instance(instance);
+        Set<String> unanswered = new LinkedHashSet<>(userIds);
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            meters.inFlight().incrementAndGet();
+            return webClient.post()
+                    .uri("http://" + instance.address() + "/api/process/batch")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(userIds)
+                    .exchangeToFlux(upstream -> {
+                        long latency = System.nanoTime() - start;
+                        boolean failed = upstream.statusCode().is5xxServerError();
+                        serviceRegistry.report(instance, latency, failed);
+                        meters.recordUpstream(latency, failed);
+                        if (upstream.statusCode().isError()) {
+                            return upstream.createException().flatMapMany(Flux::error);
+                        }
+                        // Decoded per line, so lines from different instances never interleave
+                        return upstream.bodyToFlux(String.class);
+                    })
+                    .doOnError(WebClientRequestException.class, e -> {
+                        long latency = System.nanoTime() - start;
+                        serviceRegistry.report(instance, latency, true);
+                        meters.recordUpstream(latency, true);
+                    })
+                    .doFinally(signal -> {
+                        meters.inFlight().decrementAndGet();
+                        userIds.forEach(userId -> serviceRegistry.release(instance));
+                    });
+        })
+                .filter(line -> !line.isEmpty())
+                .doOnNext(line -> unanswered.remove(userIdOf(line)))
+                .onErrorResume(e -> {
+                    log.warn("Batch of {} users to instance={} failed with {} unanswered: {}",
+                            userIds.size(), instance.id(), unanswered.size(), e.getMessage());
+                    String error = e instanceof WebClientResponseException status
+                            ? "Instance returned " + status.getStatusCode().value()
+                            : "Instance unavailable";
+                    return Flux.fromIterable(List.copyOf(unanswered))
+                            .map(userId -> errorLine(userId, instance, error));
                 });
     }
+
+    private String userIdOf(String line) {
+        try {
+            return objectMapper.readTree(line).path("userId").asText(null);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private String errorLine(String userId, ServiceInstance instance, String error) {
+        try {
+            return objectMapper.writeValueAsString(new BatchError(userId, instance.id(), error));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The acquired target followed by the instances next in its preference list,
+     * as many as the failover policy may use.
+     */
+    private List<ServiceInstance> candidates(String userId, ServiceInstance target) {
+        int extra = failoverPolicy.maxExtraAttempts();
+        if (extra == 0) {
+            return List.of(target);
+        }
+        List<ServiceInstance> candidates = new ArrayList<>(extra + 1);
+        candidates.add(target);
+        for (ServiceInstance replica : serviceRegistry.resolveReplicas(userId, extra + 1)) {
+            if (candidates.size() <= extra && !replica.equals(target)) {
+                candidates.add(replica);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Sends to {@code instance}, which the caller has acquired, and releases it
+     * when the attempt completes, fails or is cancelled as a losing hedge. A
+     * {@linkplain #retryable retryable} failure moves on to the next unused
+     * candidate while retries and budget remain.
+     */
+    private Mono<ServiceInstance> attempt(Attempts attempts, ServiceInstance instance) {
+        return send(attempts, instance)
+                .doFinally(signal -> serviceRegistry.release(instance))
+                .onErrorResume(e -> {
+                    if (e instanceof RetryElsewhere retry) {
+                        return extraAttempt(attempts, retry.fallback);
+                    }
+                    ServiceInstance fallback = retryable(attempts, e) ? nextForRetry(attempts) : null;
+                    if (fallback == null) {
+                        return Mono.error(e);
+                    }
+                    log.debug("Request to instance={} failed ({}), retrying on instance={}",
+                            instance.id(), e.getMessage(), fallback.id());
+                    return extraAttempt(attempts, fallback);
+                });
+    }
+
+    /**
+     * An attempt on a hedge or retry candidate, acquired on subscription so the
+     * bounded-load in-flight counts include it.
+     */
+    private Mono<ServiceInstance> extraAttempt(Attempts attempts, ServiceInstance instance) {
+        return Mono.defer(() -> {
+            serviceRegistry.acquireNode(instance);
+            return attempt(attempts, instance);
+        });
+    }
+
+    /**
+     * The next unused candidate for a retry, or {@code null} once the request is
+     * answered or out of retries, candidates or budget.
+     */
+    private ServiceInstance nextForRetry(Attempts attempts) {
+        if (attempts.answered.get() || attempts.retriesLeft.getAndDecrement() <= 0) {
+            return null;
+        }
+        int index = attempts.next.getAndIncrement();
+        if (index >= attempts.candidates.size() || !failoverPolicy.tryRetry()) {
+            return null;
+        }
+        return attempts.candidates.get(index);
+    }
+
+    /**
+     * Proxies the request to {@code instance}. The first attempt to receive
+     * response headers writes the response and emits its instance; any later one
+     * drops its response and completes empty.
+     */
+    private Mono<ServiceInstance> send(Attempts attempts, ServiceInstance instance) {
+        ServerHttpRequest request = attempts.exchange.getRequest();
+        ServerHttpResponse response = attempts.exchange.getResponse();
+        ProxyMetrics.InstanceMeters meters = metrics.instance(instance);
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            meters.inFlight().incrementAndGet();
+            // Bodies pass through as the pooled DataBuffers Netty hands us, in both
+            // directions, so nothing is aggregated or copied onto the heap
+            return webClient.method(request.getMethod())
+                    // Already encoded; a URI template would encode it again
+                    .uri(URI.create("http://" + instance.address() + attempts.pathAndQuery))
+                    .headers(headers -> {
+                        headers.addAll(request.getHeaders());
+                        headers.remove(HttpHeaders.HOST);
+                        removeHopByHopHeaders(headers);
+                    })
+                    // Only subscribed once connected, so a connect retry can still send it
+                    .body(attempts.withBody ? BodyInserters.fromDataBuffers(request.getBody()) : BodyInserters.empty())
+                    .exchangeToMono(upstream -> {
+                        long latency = System.nanoTime() - start;
+                        boolean failed = upstream.statusCode().is5xxServerError();
+                        serviceRegistry.report(instance, latency, failed);
+                        meters.recordUpstream(latency, failed);
+                        ServiceInstance fallback = failed && attempts.resendable ? nextForRetry(attempts) : null;
+                        if (fallback != null) {
+                            log.debug("Instance={} answered {}, retrying on instance={}",
+                                    instance.id(), upstream.statusCode().value(), fallback.id());
+                            return upstream.releaseBody().then(Mono.error(new RetryElsewhere(fallback)));
+                        }
+                        if (!attempts.answered.compareAndSet(false, true)) {
+                            return upstream.releaseBody().then(Mono.<ServiceInstance>empty());
+                        }
+                        failoverPolicy.recordLatency(latency);
+                        response.setStatusCode(upstream.statusCode());
+                        HttpHeaders responseHeaders = response.getHeaders();
+                        responseHeaders.addAll(upstream.headers().asHttpHeaders());
+                        removeHopByHopHeaders(responseHeaders);
+                        responseHeaders.set("X-Routed-To", String.valueOf(instance.id()));
+                        responseHeaders.add("Server-Timing", serverTiming(attempts, start, latency));
+                        return response.writeWith(upstream.bodyToFlux(DataBuffer.class)).thenReturn(instance);
+                    })
+                    .doOnError(WebClientRequestException.class, e -> {
+                        long latency = System.nanoTime() - start;
+                        serviceRegistry.report(instance, latency, true);
+                        meters.recordUpstream(latency, true);
+                    })
+                    .doFinally(signal -> meters.inFlight().decrementAndGet());
+        });
+    }
+
+    /**
+     * {@code route;dur=..., lb;dur=..., upstream;dur=...} in milliseconds, built
+     * without formatting so it stays cheap on every response.
+     */
+    private static String serverTiming(Attempts attempts, long sendNanos, long upstreamNanos) {
+        StringBuilder value = new StringBuilder(64);
+        appendMillis(value.append("route;dur="), attempts.routeNanos);
+        appendMillis(value.append(", lb;dur="), sendNanos - attempts.startNanos);
+        appendMillis(value.append(", upstream;dur="), upstreamNanos);
+        return value.toString();
+    }
+
+    private static void appendMillis(StringBuilder value, long nanos) {
+        long micros = Math.max(nanos, 0) / 1000;
+        long fraction = micros % 1000;
+        value.append(micros / 1000).append('.');
+        if (fraction < 100) {
+            value.append(fraction < 10 ? "00" : "0");
+        }
+        value.append(fraction);
+    }
+
+    /**
+     * Connect failures never reached the instance, so any request may be retried.
+     * A timeout may have, so only a {@linkplain Attempts#resendable resendable}
+     * request is retried after one.
+     */
+    private static boolean retryable(Attempts attempts, Throwable e) {
+        if (!(e instanceof WebClientRequestException)) {
+            return false;
+        }
+        return e.getCause() instanceof ConnectException
+                || attempts.resendable && e.getCause() instanceof TimeoutException;
+    }
+
+    private static boolean hasBody(HttpHeaders headers) {
+        return headers.getContentLength() > 0 || headers.containsKey(HttpHeaders.TRANSFER_ENCODING);
+    }
+
+    private static Mono<Void> reject(ServerHttpResponse response, HttpStatus status, String message) {
+        response.setStatusCode(status);
+        DataBuffer body = response.bufferFactory().wrap(message.getBytes(StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(body));
+    }
+
+    private static void removeHopByHopHeaders(HttpHeaders headers) {
+        // Named in a Connection header are hop-by-hop too (RFC 9110, section 7.6.1)
+        List<String> connection = headers.getConnection();
+        connection.forEach(headers::remove);
+        HOP_BY_HOP_HEADERS.forEach(headers::remove);
+    }
+
+    /**
+     * State shared by the attempts made for one proxied request.
+     */
+    private static final class Attempts {
+        final ServerWebExchange exchange;
+        final String pathAndQuery;
+        final List<ServiceInstance> candidates;
+        final boolean withBody;
+        // Idempotent and without a body, so it may be sent again after it reached an instance
+        final boolean resendable;
+        final AtomicBoolean answered = new AtomicBoolean();
+        // Index of the next candidate not yet tried; the target is 0
+        final AtomicInteger next = new AtomicInteger(1);
+        final AtomicInteger retriesLeft;
+        final long startNanos;
+        final long routeNanos;
+
+        Attempts(ServerWebExchange exchange, String pathAndQuery, List<ServiceInstance> candidates,
+                 boolean withBody, boolean resendable, int retries, long startNanos, long routeNanos) {
+            this.exchange = exchange;
+            this.pathAndQuery = pathAndQuery;
+            this.candidates = candidates;
+            this.withBody = withBody;
+            this.resendable = resendable;
+            this.retriesLeft = new AtomicInteger(retries);
+            this.startNanos = startNanos;
+            this.routeNanos = routeNanos;
+        }
+    }
+
+    /**
+     * The NDJSON line for a user whose instance failed to answer a batch.
+     */
+    record BatchError(String userId, int instanceId, String error) {}
+
+    /**
+     * Signals that an attempt's 5xx response was dropped in favour of a retry on
+     * {@code fallback}; never reaches the client.
+     */
+    private static final class RetryElsewhere extends RuntimeException {
+        final ServiceInstance fallback;
+
+        RetryElsewhere(ServiceInstance fallback) {
+            super(null, null, false, false);
+            this.fallback = fallback;
+        }
+    }
 }
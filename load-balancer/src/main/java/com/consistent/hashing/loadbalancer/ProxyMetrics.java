@@ -0,0 +1,122 @@
+package com.consistent.hashing.loadbalancer;
+
+import com.consistent.hashing.common.ServiceInstance;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-instance routing and upstream meters of the proxy. Each instance's meters
+ * are registered the first time it is routed to and kept in a map, so a request
+ * costs a map lookup and a few atomic updates, never a tag list or a registry
+ * lookup.
+ * <p>
+ * Only ring members get meters. {@link ServiceRegistry} announces each instance
+ * with {@link #join} before it can be routed to and drops its meters with
+ * {@link #forget} when it leaves. Requests still in flight to an instance that
+ * left then record into detached meters that are never exported, instead of
+ * registering its series again.
+ */
+@Component
+public class ProxyMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<ServiceInstance, InstanceMeters> instances = new ConcurrentHashMap<>();
+    private final Set<ServiceInstance> members = ConcurrentHashMap.newKeySet();
+    private final InstanceMeters detached;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public ProxyMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        // A composite without registries hands out no-op meters
+        this.detached = register(Tags.empty(), new CompositeMeterRegistry());
+        Gauge.builder("proxy.requests.in.flight", inFlight, AtomicInteger::get)
+                .description("Requests being proxied")
+                .register(meterRegistry);
+    }
+
+    public InstanceMeters instance(ServiceInstance instance) {
+        InstanceMeters meters = instances.get(instance);
+        if (meters != null) {
+            return meters;
+        }
+        // Checked under the map's lock for the key, so it cannot interleave with forget
+        meters = instances.computeIfAbsent(instance, i -> members.contains(i)
+                ? register(Tags.of("instance", String.valueOf(i.id())), meterRegistry)
+                : null);
+        return meters != null ? meters : detached;
+    }
+
+    /**
+     * Allows meters for {@code instance}, which is joining the ring.
+     */
+    public void join(ServiceInstance instance) {
+        members.add(instance);
+    }
+
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    public void requestFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Removes the meters of an instance that left the cluster.
+     */
+    public void forget(ServiceInstance instance) {
+        members.remove(instance);
+        InstanceMeters meters = instances.remove(instance);
+        if (meters != null) {
+            meters.all().forEach(meterRegistry::remove);
+        }
+    }
+
+    private static InstanceMeters register(Tags tags, MeterRegistry meterRegistry) {
+        AtomicInteger inFlight = new AtomicInteger();
+        Timer route = Timer.builder("proxy.route.lookup")
+                .description("Time to pick the instance for a request")
+                .tags(tags).register(meterRegistry);
+        Timer success = upstream(tags, "success", meterRegistry);
+        Timer error = upstream(tags, "error", meterRegistry);
+        Gauge gauge = Gauge.builder("proxy.instance.in.flight", inFlight, AtomicInteger::get)
+                .description("Upstream calls to the instance awaiting their response")
+                .tags(tags).register(meterRegistry);
+        return new InstanceMeters(route, success, error, inFlight, gauge);
+    }
+
+    private static Timer upstream(Tags tags, String outcome, MeterRegistry meterRegistry) {
+        return Timer.builder("proxy.instance.requests")
+                .description("Time until the instance's response headers arrive; 5xx and connect failures are errors")
+                .publishPercentileHistogram(true)
+                .tags(tags).tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    public record InstanceMeters(Timer route, Timer success, Timer error, AtomicInteger inFlight, Gauge gauge) {
+
+        public void recordRoute(long nanos) {
+            route.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void recordUpstream(long nanos, boolean failed) {
+            (failed ? error : success).record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        private List<Meter> all() {
+            return List.of(route, success, error, gauge);
+        }
+    }
+}
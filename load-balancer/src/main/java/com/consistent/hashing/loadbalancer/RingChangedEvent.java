@@ -0,0 +1,20 @@
+package com.consistent.hashing.loadbalancer;
+
+import com.consistent.hashing.common.MovedRange;
+import com.consistent.hashing.common.RingSnapshot;
+import com.consistent.hashing.common.ServiceInstance;
+
+import java.util.List;
+
+/**
+ * Published by {@link ServiceRegistry} after a batch of membership changes, with
+ * the ring as it was before and after and the hash ranges that changed owner.
+ * Only published for ring-based lookup algorithms.
+ */
+public record RingChangedEvent(RingSnapshot<ServiceInstance> before, RingSnapshot<ServiceInstance> after,
+                               List<MovedRange<ServiceInstance>> moved) {
+
+    public RingChangedEvent(RingSnapshot<ServiceInstance> before, RingSnapshot<ServiceInstance> after) {
+        this(before, after, before.movedRanges(after));
+    }
+}
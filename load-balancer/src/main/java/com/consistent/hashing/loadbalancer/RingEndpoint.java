@@ -0,0 +1,55 @@
+package com.consistent.hashing.loadbalancer;
+
+import com.consistent.hashing.common.HashAlgorithm;
+import com.consistent.hashing.common.RingAnalyzer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * {@code /actuator/ring}: how the current members, with their weights, split a
+ * sample of numeric keys, and how many keys a join or a leave would move; see
+ * {@link RingAnalyzer}. {@code algorithm} and {@code virtualNodes} default to
+ * the live configuration and can be overridden to compare settings before
+ * changing them. The analysis runs on half the processors, and {@code keys} is
+ * capped at {@code ring.analysis.max-keys}.
+ */
+@Component
+@Endpoint(id = "ring")
+public class RingEndpoint {
+
+    private final ServiceRegistry serviceRegistry;
+    private final long maxKeys;
+
+    public RingEndpoint(ServiceRegistry serviceRegistry,
+                        @Value("${ring.analysis.max-keys:10000000}") long maxKeys) {
+        this.serviceRegistry = serviceRegistry;
+        this.maxKeys = maxKeys;
+    }
+
+    @ReadOperation
+    public RingAnalyzer.Report analyze(@Nullable Long keys, @Nullable String algorithm,
+                                       @Nullable Integer virtualNodes, @Nullable String leave) {
+        Map<String, Double> members = serviceRegistry.members();
+        if (members.isEmpty()) {
+            return null;
+        }
+        RingAnalyzer analyzer;
+        try {
+            analyzer = new RingAnalyzer(
+                    algorithm == null ? serviceRegistry.algorithm() : HashAlgorithm.fromName(algorithm),
+                    virtualNodes == null ? serviceRegistry.virtualNodes() : virtualNodes,
+                    members, leave);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+        }
+        long sample = Math.min(keys == null ? 1_000_000 : Math.max(keys, 1), maxKeys);
+        return analyzer.analyze(RingAnalyzer.sequentialKeys(sample),
+                Math.max(Runtime.getRuntime().availableProcessors() / 2, 1));
+    }
+}
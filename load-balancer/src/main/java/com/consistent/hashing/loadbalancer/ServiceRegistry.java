@@ -1,55 +1,176 @@
 package com.consistent.hashing.loadbalancer;
 
+import com.consistent.hashing.common.BoundedLoadHashRing;
 import com.consistent.hashing.common.ConsistentHashRing;
+import com.consistent.hashing.common.HashAlgorithm;
+import com.consistent.hashing.common.MovedRange;
+import com.consistent.hashing.common.NodeLocator;
+import com.consistent.hashing.common.RegistrationPayload;
+import com.consistent.hashing.common.RingSnapshot;
 import com.consistent.hashing.common.ServiceInstance;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.consistent.hashing.common.WeightedNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.apache.curator.framework.CuratorFramework;
-import org.apache.curator.framework.recipes.cache.PathChildrenCache;
-import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCache;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Keeps the lookup structure in step with the API service registrations in
+ * ZooKeeper and resolves keys to instances.
+ * <p>
+ * Membership events are not applied one at a time. The first event opens a
+ * window of {@code ring.membership-debounce}; every event that arrives within it
+ * joins the batch, with the latest event per instance winning, and the batch is
+ * applied as one atomic swap of the lookup structure. A rolling deploy or a
+ * session blip that produces dozens of events therefore costs a few rebuilds,
+ * and keys bouncing between instances inside one window never move at all.
+ * <p>
+ * Registrations are watched with a {@link CuratorCache}. Events only stage the
+ * raw node data; it is parsed on the apply thread, once per instance and batch,
+ * so the Curator event thread never runs Jackson. The initial registrations are
+ * staged the same way and applied as a single batch once the cache reports it
+ * is initialized, which builds the ring in one pass.
+ */
 @Component
 public class ServiceRegistry {
 
     private static final Logger log = LoggerFactory.getLogger(ServiceRegistry.class);
-    private static final String SERVICE_PATH = "/services/api";
+    private static final long INITIAL_LOAD_TIMEOUT_SECONDS = 30;
 
     private final CuratorFramework curator;
-    private final ConsistentHashRing<ServiceInstance> ring = new ConsistentHashRing<>();
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private PathChildrenCache cache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final InstanceHealth health;
+    private final ProxyMetrics proxyMetrics;
+    private final NodeLocator<ServiceInstance> ring;
+    private final Map<String, ServiceInstance> instances = new ConcurrentHashMap<>();
+    private final Map<String, Double> weights = new ConcurrentHashMap<>();
+    // In-flight requests per instance; bounded-load keeps its own counts
+    private final Map<ServiceInstance, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final int replicas;
+    private final double loadFactor;
+    private final ThreadLocal<ServiceInstance[]> replicaScratch;
+    private final ThreadLocal<ServiceInstance[]> spreadScratch = ThreadLocal.withInitial(() -> new ServiceInstance[0]);
+    private CuratorCache cache;
+
+    private final long debounceNanos;
+    private final ScheduledExecutorService applier;
+    // Membership changes not applied yet; guarded by itself. Keys in both are replaced
+    private final Map<String, ChildData> pendingAdds = new LinkedHashMap<>();
+    private final Set<String> pendingRemoves = new LinkedHashSet<>();
+    // When each pending change was first received, for ring.sync.lag; the initial load is not timed
+    private final Map<String, Long> pendingSince = new HashMap<>();
+    private boolean applyScheduled;
+    // Until the cache has delivered the initial registrations, events are only staged
+    private boolean initialized;
+    private final CountDownLatch initialLoad = new CountDownLatch(1);
+    private final Timer syncLag;
+    private final Counter membershipChanges;
+    private final Counter rebuilds;
+    private final DistributionSummary movedRanges;
+    private final DistributionSummary movedKeyspace;
+
+    private final HashAlgorithm algorithm;
+    private final int virtualNodes;
 
-    public ServiceRegistry(CuratorFramework curator) {
+    public ServiceRegistry(CuratorFramework curator,
+                           ApplicationEventPublisher eventPublisher,
+                           InstanceHealth health,
+                           ProxyMetrics proxyMetrics,
+                           MeterRegistry meterRegistry,
+                           @Value("${ring.algorithm:" + HashAlgorithm.DEFAULT_NAME + "}") String algorithm,
+                           @Value("${ring.virtual-nodes:160}") int virtualNodes,
+                           @Value("${ring.load-factor:1.25}") double loadFactor,
+                           @Value("${ring.replicas:1}") int replicas,
+                           @Value("${ring.membership-debounce:200ms}") Duration membershipDebounce) {
         this.curator = curator;
+        this.eventPublisher = eventPublisher;
+        this.health = health;
+        this.proxyMetrics = proxyMetrics;
+        this.algorithm = HashAlgorithm.fromName(algorithm);
+        this.ring = this.algorithm.create(virtualNodes, loadFactor);
+        this.virtualNodes = virtualNodes;
+        this.loadFactor = loadFactor;
+        this.replicas = Math.max(replicas, 1);
+        this.replicaScratch = ThreadLocal.withInitial(() -> new ServiceInstance[this.replicas]);
+        this.debounceNanos = membershipDebounce.toNanos();
+        this.applier = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("ring-membership").daemon().factory());
+        this.membershipChanges = Counter.builder("ring.membership.changes")
+                .description("Membership events applied to the ring")
+                .register(meterRegistry);
+        this.rebuilds = Counter.builder("ring.rebuilds")
+                .description("Batches of membership events applied as one ring swap")
+                .register(meterRegistry);
+        this.movedRanges = DistributionSummary.builder("ring.moved.ranges")
+                .description("Hash ranges that changed owner per ring swap")
+                .register(meterRegistry);
+        this.movedKeyspace = DistributionSummary.builder("ring.moved.keyspace")
+                .description("Share of the key space that changed owner per ring swap")
+                .register(meterRegistry);
+        this.syncLag = Timer.builder("ring.sync.lag")
+                .description("Time from receiving a registration change to its ring swap")
+                .register(meterRegistry);
+        Gauge.builder("ring.members", this, ServiceRegistry::size)
+                .description("Instances on the ring")
+                .register(meterRegistry);
+        Gauge.builder("ring.sync.pending", this, registry -> registry.pendingChanges())
+                .description("Membership changes received but not yet applied")
+                .register(meterRegistry);
     }
 
     @PostConstruct
     public void init() throws Exception {
         // Ensure parent path exists
-        if (curator.checkExists().forPath(SERVICE_PATH) == null) {
-            curator.create().creatingParentsIfNeeded().forPath(SERVICE_PATH);
+        if (curator.checkExists().forPath(RegistrationPayload.SERVICE_PATH) == null) {
+            curator.create().creatingParentsIfNeeded().forPath(RegistrationPayload.SERVICE_PATH);
         }
 
-        cache = new PathChildrenCache(curator, SERVICE_PATH, true);
-        cache.getListenable().addListener(this::onEvent);
-        cache.start(PathChildrenCache.StartMode.BUILD_INITIAL_CACHE);
-
-        // Process initial children
-        cache.getCurrentData().forEach(childData -> {
-            try {
-                addInstance(childData.getPath(), childData.getData());
-            } catch (Exception e) {
-                log.error("Failed to process initial child: {}", childData.getPath(), e);
-            }
-        });
+        cache = CuratorCache.build(curator, RegistrationPayload.SERVICE_PATH);
+        cache.listenable().addListener(CuratorCacheListener.builder()
+                // Re-adding an instance with a new weight only moves the ring points past the smaller count
+                .forCreatesAndChanges((previous, node) -> stage(node))
+                .forDeletes(this::stageRemoval)
+                .forInitialized(this::onInitialized)
+                .build());
+        cache.start();
 
-        log.info("ServiceRegistry initialized with {} instances", ring.size());
+        if (!awaitInitialLoad(INITIAL_LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            log.warn("Initial load of {} did not finish within {}s; starting with {} instances",
+                    RegistrationPayload.SERVICE_PATH, INITIAL_LOAD_TIMEOUT_SECONDS, ring.size());
+        }
+        log.info("ServiceRegistry initialized with {} instances using {} lookup",
+                ring.size(), algorithm);
     }
 
     @PreDestroy
@@ -57,50 +178,374 @@ public class ServiceRegistry {
         if (cache != null) {
             cache.close();
         }
+        applier.shutdownNow();
+    }
+
+    void stage(ChildData node) {
+        String nodeKey = RegistrationPayload.nodeKey(node.getPath());
+        if (nodeKey == null) {
+            return;
+        }
+        synchronized (pendingAdds) {
+            pendingAdds.put(nodeKey, node);
+            markPending(nodeKey);
+        }
+        scheduleApply();
+    }
+
+    void stageRemoval(ChildData node) {
+        String nodeKey = RegistrationPayload.nodeKey(node.getPath());
+        if (nodeKey == null) {
+            return;
+        }
+        synchronized (pendingAdds) {
+            pendingAdds.remove(nodeKey);
+            pendingRemoves.add(nodeKey);
+            markPending(nodeKey);
+        }
+        scheduleApply();
+    }
+
+    // Called with pendingAdds held
+    private void markPending(String nodeKey) {
+        if (initialized) {
+            pendingSince.putIfAbsent(nodeKey, System.nanoTime());
+        }
+    }
+
+    /**
+     * Applies everything staged during the initial load as one batch.
+     */
+    void onInitialized() {
+        synchronized (pendingAdds) {
+            initialized = true;
+            applyScheduled = true;
+        }
+        applier.execute(() -> {
+            applyPending();
+            initialLoad.countDown();
+        });
+    }
+
+    /**
+     * Waits until the initial batch has been applied; {@code false} on timeout.
+     */
+    boolean awaitInitialLoad(long timeout, TimeUnit unit) throws InterruptedException {
+        return initialLoad.await(timeout, unit);
+    }
+
+    private void scheduleApply() {
+        synchronized (pendingAdds) {
+            if (!initialized || applyScheduled) {
+                return;
+            }
+            applyScheduled = true;
+        }
+        applier.schedule(this::applyPending, debounceNanos, TimeUnit.NANOSECONDS);
     }
 
-    private void onEvent(CuratorFramework client, PathChildrenCacheEvent event) {
-        switch (event.getType()) {
-            case CHILD_ADDED -> {
-                try {
-                    addInstance(event.getData().getPath(), event.getData().getData());
-                } catch (Exception e) {
-                    log.error("Failed to add instance", e);
-                }
+    private int pendingChanges() {
+        synchronized (pendingAdds) {
+            return pendingAdds.size() + pendingRemoves.size();
+        }
+    }
+
+    /**
+     * Applies all staged membership changes as one swap of the lookup structure
+     * and publishes a single {@link RingChangedEvent} for the whole batch.
+     */
+    private synchronized void applyPending() {
+        Map<String, ChildData> staged;
+        Set<String> removed;
+        long[] received;
+        synchronized (pendingAdds) {
+            staged = new LinkedHashMap<>(pendingAdds);
+            removed = new LinkedHashSet<>(pendingRemoves);
+            received = pendingSince.values().stream().mapToLong(Long::longValue).toArray();
+            pendingAdds.clear();
+            pendingRemoves.clear();
+            pendingSince.clear();
+            applyScheduled = false;
+        }
+        if (staged.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        Map<String, WeightedNode<ServiceInstance>> added = new LinkedHashMap<>();
+        staged.forEach((nodeKey, node) -> {
+            try {
+                added.put(nodeKey, parseInstance(nodeKey, node.getData()));
+            } catch (Exception e) {
+                log.error("Failed to read instance {}", node.getPath(), e);
+            }
+        });
+
+        RingSnapshot<ServiceInstance> before = ringSnapshot();
+        added.values().forEach(member -> proxyMetrics.join(member.node()));
+        ring.apply(added, removed);
+        for (String nodeKey : removed) {
+            if (added.containsKey(nodeKey)) {
+                continue;
+            }
+            weights.remove(nodeKey);
+            ServiceInstance gone = instances.remove(nodeKey);
+            if (gone != null) {
+                forget(gone);
             }
-            case CHILD_REMOVED -> {
-                String path = event.getData().getPath();
-                String nodeKey = extractNodeKey(path);
-                ring.removeNode(nodeKey);
-                log.info("Removed instance from ring: nodeKey={}", nodeKey);
+        }
+        added.forEach((nodeKey, member) -> {
+            ServiceInstance previous = instances.put(nodeKey, member.node());
+            weights.put(nodeKey, member.weight());
+            if (previous != null && !previous.equals(member.node())) {
+                forget(previous);
             }
-            default -> {}
+        });
+        membershipChanges.increment(added.size() + removed.size());
+        rebuilds.increment();
+        long now = System.nanoTime();
+        for (long since : received) {
+            syncLag.record(now - since, TimeUnit.NANOSECONDS);
+        }
+
+        RingSnapshot<ServiceInstance> after = ringSnapshot();
+        if (before == null || after == before) {
+            log.info("Applied membership changes: added/updated={}, removed={}, instances={}",
+                    added.keySet(), removed, ring.size());
+            return;
         }
+        List<MovedRange<ServiceInstance>> moved = before.movedRanges(after);
+        double keyspace = 0;
+        for (MovedRange<ServiceInstance> range : moved) {
+            keyspace += range.range().fraction();
+        }
+        movedRanges.record(moved.size());
+        movedKeyspace.record(keyspace);
+        log.info("Applied membership changes: added/updated={}, removed={}, instances={}, "
+                        + "moved {} ranges ({}% of keys)",
+                added.keySet(), removed, ring.size(), moved.size(), String.format("%.2f", keyspace * 100));
+        eventPublisher.publishEvent(new RingChangedEvent(before, after, moved));
     }
 
-    private void addInstance(String path, byte[] data) throws Exception {
-        JsonNode json = objectMapper.readTree(data);
-        String host = json.get("host").asText();
-        int port = json.get("port").asInt();
-        String nodeKey = extractNodeKey(path);
-        int nodeKeyId = Integer.parseInt(nodeKey);
+    private void forget(ServiceInstance instance) {
+        health.forget(instance);
+        proxyMetrics.forget(instance);
+        inFlight.remove(instance);
+    }
 
-        ServiceInstance instance = new ServiceInstance(nodeKeyId, host, port);
-        ring.addNode(nodeKey, instance);
-        log.info("Added instance to ring: nodeKey={}, address={}:{}", nodeKey, host, port);
+    /**
+     * Current ring ownership, or {@code null} if the lookup algorithm has no ring.
+     */
+    private RingSnapshot<ServiceInstance> ringSnapshot() {
+        if (ring instanceof ConsistentHashRing<ServiceInstance> consistent) {
+            return consistent.snapshot();
+        }
+        if (ring instanceof BoundedLoadHashRing<ServiceInstance> bounded) {
+            return bounded.snapshot();
+        }
+        return null;
     }
 
-    private String extractNodeKey(String path) {
-        // Path like /services/api/instance-0000000001 -> "0000000001" -> parsed to int -> back to string
-        String name = path.substring(path.lastIndexOf('-') + 1);
-        return String.valueOf(Integer.parseInt(name));
+    /**
+     * Reads a registration in either the JSON or the compact binary form; see
+     * {@link RegistrationPayload}.
+     */
+    private static WeightedNode<ServiceInstance> parseInstance(String nodeKey, byte[] data) {
+        RegistrationPayload payload = RegistrationPayload.parse(data);
+        double weight = payload.ringWeight();
+        if (weight != payload.weight()) {
+            log.warn("Using weight {} for instance {} instead of {}", weight, nodeKey, payload.weight());
+        }
+        ServiceInstance instance = new ServiceInstance(ServiceInstance.idFor(nodeKey), payload.host(), payload.port());
+        return new WeightedNode<>(instance, weight);
     }
 
+    /**
+     * The instance for {@code key}, skipping instances ejected by
+     * {@link InstanceHealth} unless every candidate is ejected.
+     */
     public ServiceInstance resolve(String key) {
-        return ring.getNode(key);
+        if (!health.degraded()) {
+            return ring.getNode(key);
+        }
+        long keyHash = ConsistentHashRing.hash(key);
+        Predicate<ServiceInstance> admitted = instance -> health.admits(instance, keyHash);
+        ServiceInstance instance = switch (ring) {
+            case BoundedLoadHashRing<ServiceInstance> bounded -> bounded.getNode(key, admitted);
+            case ConsistentHashRing<ServiceInstance> consistent -> consistent.getNode(key, admitted);
+            default -> firstAdmitted(key, admitted);
+        };
+        return instance != null ? instance : ring.getNode(key);
+    }
+
+    /**
+     * Up to {@code count} distinct instances for {@code key}, owner first, then
+     * the instances that would take the key over if the ones before it left.
+     * Ejected instances are moved to the end.
+     */
+    public List<ServiceInstance> resolveReplicas(String key, int count) {
+        List<ServiceInstance> replicas = ring.getNodes(key, count);
+        if (health.degraded()) {
+            List<ServiceInstance> ordered = new ArrayList<>(replicas.size());
+            replicas.stream().filter(instance -> !health.isEjected(instance)).forEach(ordered::add);
+            replicas.stream().filter(health::isEjected).forEach(ordered::add);
+            return ordered;
+        }
+        return replicas;
+    }
+
+    /**
+     * Records the outcome of a proxied request for outlier detection.
+     */
+    public void report(ServiceInstance instance, long latencyNanos, boolean failed) {
+        health.record(instance, latencyNanos, failed);
+    }
+
+    /**
+     * Resolves {@code key} for a request that is about to be sent. With the
+     * bounded-load algorithm this counts the request as in flight on the chosen
+     * instance, and overloaded owners hand the key to the next instance clockwise.
+     * Pair every non-null result with {@link #release}.
+     */
+    public ServiceInstance acquire(String key) {
+        if (ring instanceof BoundedLoadHashRing<ServiceInstance> bounded) {
+            if (!health.degraded()) {
+                return bounded.acquire(key);
+            }
+            long keyHash = ConsistentHashRing.hash(key);
+            ServiceInstance instance = bounded.acquire(key, candidate -> health.admits(candidate, keyHash));
+            return instance != null ? instance : bounded.acquire(key);
+        }
+        ServiceInstance instance = resolve(key);
+        return instance != null ? claim(instance) : null;
+    }
+
+    /**
+     * Acquires an instance for a read of {@code key}. With {@code ring.replicas}
+     * above 1, each of the key's first replicas holds a copy of its result, so
+     * the read goes to the first of them, in preference order, whose in-flight
+     * count is within the load factor of the least busy one. When load is even
+     * that is the owner. Pair every non-null result with {@link #release}.
+     */
+    public ServiceInstance acquireRead(String key) {
+        if (replicas == 1) {
+            return acquire(key);
+        }
+        ServiceInstance[] candidates = replicaScratch.get();
+        int n = ring.getNodes(key, candidates);
+        ServiceInstance chosen = pick(key, candidates, n, false);
+        return chosen != null ? claim(chosen) : acquire(key);
+    }
+
+    /**
+     * Acquires the least busy of the key's first {@code count} instances, for
+     * reads of hot users that would otherwise pile onto one owner. Ties go to a
+     * random one of them. Pair every non-null result with {@link #release}.
+     */
+    public ServiceInstance acquireSpread(String key, int count) {
+        ServiceInstance[] candidates = spreadScratch.get();
+        if (candidates.length != count) {
+            candidates = new ServiceInstance[Math.max(count, 1)];
+            spreadScratch.set(candidates);
+        }
+        int n = ring.getNodes(key, candidates);
+        ServiceInstance chosen = pick(key, candidates, n, true);
+        return chosen != null ? claim(chosen) : acquire(key);
+    }
+
+    /**
+     * Counts a request as in flight on {@code instance}, an instance the caller
+     * picked itself, such as the next replica for a retry or a hedge. Pair with
+     * {@link #release}.
+     */
+    public void acquireNode(ServiceInstance instance) {
+        claim(instance);
+    }
+
+    public void release(ServiceInstance instance) {
+        if (ring instanceof BoundedLoadHashRing<ServiceInstance> bounded) {
+            bounded.release(instance);
+        } else {
+            AtomicInteger count = inFlight.get(instance);
+            if (count != null) {
+                count.getAndUpdate(v -> v > 0 ? v - 1 : 0);
+            }
+        }
+    }
+
+    /**
+     * Picks among the first {@code n} candidates, skipping any that outlier
+     * detection does not admit. Without {@code spread}: the first whose load is
+     * within the load factor of the least busy. With it: the least busy, ties
+     * broken from a random starting point. {@code null} if none is admitted.
+     */
+    private ServiceInstance pick(String key, ServiceInstance[] candidates, int n, boolean spread) {
+        boolean degraded = health.degraded();
+        long keyHash = degraded ? ConsistentHashRing.hash(key) : 0;
+        int offset = spread && n > 0 ? ThreadLocalRandom.current().nextInt(n) : 0;
+        ServiceInstance least = null;
+        int leastLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            ServiceInstance candidate = candidates[(offset + i) % n];
+            int load = inFlight(candidate);
+            if (load < leastLoad && (!degraded || health.admits(candidate, keyHash))) {
+                least = candidate;
+                leastLoad = load;
+            }
+        }
+        if (spread || least == null) {
+            return least;
+        }
+        long limit = (long) Math.ceil(loadFactor * (leastLoad + 1));
+        for (int i = 0; i < n; i++) {
+            ServiceInstance candidate = candidates[i];
+            if (inFlight(candidate) < limit && (!degraded || health.admits(candidate, keyHash))) {
+                return candidate;
+            }
+        }
+        return least;
+    }
+
+    private ServiceInstance claim(ServiceInstance instance) {
+        if (ring instanceof BoundedLoadHashRing<ServiceInstance> bounded) {
+            bounded.acquireNode(instance);
+        } else {
+            inFlight.computeIfAbsent(instance, i -> new AtomicInteger()).incrementAndGet();
+        }
+        return instance;
+    }
+
+    private int inFlight(ServiceInstance instance) {
+        if (ring instanceof BoundedLoadHashRing<ServiceInstance> bounded) {
+            return bounded.load(instance);
+        }
+        AtomicInteger count = inFlight.get(instance);
+        return count == null ? 0 : count.get();
     }
 
     public int size() {
         return ring.size();
     }
+
+    public HashAlgorithm algorithm() {
+        return algorithm;
+    }
+
+    public int virtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * Node keys of the current members and their weights, sorted by key.
+     */
+    public Map<String, Double> members() {
+        return new TreeMap<>(weights);
+    }
+
+    private ServiceInstance firstAdmitted(String key, Predicate<ServiceInstance> admitted) {
+        for (ServiceInstance instance : ring.getNodes(key, ring.size())) {
+            if (admitted.test(instance)) {
+                return instance;
+            }
+        }
+        return null;
+    }
 }
@@ -0,0 +1,65 @@
+package com.consistent.hashing.loadbalancer;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * HTTP client used for upstream calls to the api-service.
+ * <p>
+ * Reactor Netty keeps a separate pool per remote address, so every
+ * {@code ServiceInstance} gets its own bounded pool and pending-acquire queue: a
+ * slow instance can exhaust its own pool but not the others'. Pool usage is
+ * published to Micrometer as {@code reactor.netty.connection.provider.*}.
+ * <p>
+ * Spring Boot applies this connector to the injected {@code WebClient.Builder}.
+ */
+@Configuration
+public class UpstreamClientConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider upstreamConnectionProvider(
+            @Value("${upstream.pool.max-connections:500}") int maxConnections,
+            @Value("${upstream.pool.pending-acquire-max-count:1000}") int pendingAcquireMaxCount,
+            @Value("${upstream.pool.pending-acquire-timeout-ms:2000}") long pendingAcquireTimeoutMs,
+            @Value("${upstream.pool.max-idle-time-ms:30000}") long maxIdleTimeMs,
+            @Value("${upstream.pool.max-life-time-ms:300000}") long maxLifeTimeMs,
+            @Value("${upstream.pool.evict-in-background-ms:30000}") long evictInBackgroundMs) {
+        return ConnectionProvider.builder("upstream")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+                .maxLifeTime(Duration.ofMillis(maxLifeTimeMs))
+                .evictInBackground(Duration.ofMillis(evictInBackgroundMs))
+                // Drop pools for instances that have left the ring
+                .disposeInactivePoolsInBackground(Duration.ofMillis(evictInBackgroundMs), Duration.ofMillis(maxIdleTimeMs))
+                .metrics(true)
+                .build();
+    }
+
+    @Bean
+    public ClientHttpConnector upstreamHttpConnector(
+            ConnectionProvider upstreamConnectionProvider,
+            @Value("${upstream.connect-timeout-ms:1000}") int connectTimeoutMs,
+            @Value("${upstream.response-timeout-ms:5000}") long responseTimeoutMs,
+            @Value("${upstream.h2c:false}") boolean h2c) {
+        HttpClient httpClient = HttpClient.create(upstreamConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .keepAlive(true)
+                .responseTimeout(Duration.ofMillis(responseTimeoutMs))
+                // Prior-knowledge HTTP/2 multiplexes requests over few connections
+                .protocol(h2c ? new HttpProtocol[]{HttpProtocol.H2C} : new HttpProtocol[]{HttpProtocol.HTTP11});
+        return new ReactorClientHttpConnector(httpClient);
+    }
+}
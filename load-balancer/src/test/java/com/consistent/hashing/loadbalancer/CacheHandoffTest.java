@@ -0,0 +1,68 @@
+package com.consistent.hashing.loadbalancer;
+
+import com.consistent.hashing.common.ConsistentHashRing;
+import com.consistent.hashing.common.RingSnapshot;
+import com.consistent.hashing.common.ServiceInstance;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CacheHandoffTest {
+
+    private MockWebServer newOwner;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        newOwner = new MockWebServer();
+        newOwner.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        newOwner.shutdown();
+    }
+
+    @Test
+    void newOwnerPullsMovedRangesFromPreviousOwner() throws Exception {
+        newOwner.enqueue(new MockResponse()
+                .setBody("{\"imported\":3}")
+                .addHeader("Content-Type", "application/json"));
+
+        ServiceInstance existing = new ServiceInstance(0, "api-service-0", 8081);
+        ServiceInstance joining = new ServiceInstance(1, newOwner.getHostName(), newOwner.getPort());
+        ConsistentHashRing<ServiceInstance> ring = new ConsistentHashRing<>(8);
+        ring.addNode("0", existing);
+        RingSnapshot<ServiceInstance> before = ring.snapshot();
+        ring.addNode("1", joining);
+
+        new CacheHandoff(WebClient.builder(), true)
+                .onRingChanged(new RingChangedEvent(before, ring.snapshot()));
+
+        RecordedRequest request = newOwner.takeRequest(5, TimeUnit.SECONDS);
+        assertThat(request).isNotNull();
+        assertThat(request.getPath()).isEqualTo("/internal/cache/pull");
+        String body = request.getBody().readUtf8();
+        assertThat(body).contains("\"source\":\"api-service-0:8081\"").contains("\"ranges\":[{\"start\":");
+        assertThat(newOwner.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    void firstInstanceHasNothingToPull() {
+        ConsistentHashRing<ServiceInstance> ring = new ConsistentHashRing<>(8);
+        RingSnapshot<ServiceInstance> before = ring.snapshot();
+        ring.addNode("0", new ServiceInstance(0, newOwner.getHostName(), newOwner.getPort()));
+
+        new CacheHandoff(WebClient.builder(), true)
+                .onRingChanged(new RingChangedEvent(before, ring.snapshot()));
+
+        assertThat(newOwner.getRequestCount()).isZero();
+    }
+}
@@ -0,0 +1,68 @@
+package com.consistent.hashing.loadbalancer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotKeyTrackerTest {
+
+    private SimpleMeterRegistry registry;
+    private HotKeyTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        tracker = new HotKeyTracker(4, 0.05, 50, 3, 1024, registry, null);
+    }
+
+    @Test
+    void heavyUserBecomesHotAndColdUsersDoNot() {
+        boolean hot = false;
+        for (int i = 0; i < 2000; i++) {
+            tracker.record("user-" + i);
+            if (i % 10 == 0) {
+                hot = tracker.record("heavy");
+            }
+        }
+
+        assertThat(hot).isTrue();
+        assertThat(tracker.record("user-7")).isFalse();
+        assertThat(tracker.snapshot()).first().satisfies(key -> {
+            assertThat(key.userId()).isEqualTo("heavy");
+            assertThat(key.hot()).isTrue();
+            assertThat(key.requests()).isGreaterThanOrEqualTo(190);
+        });
+        assertThat(tracker.snapshot()).filteredOn(HotKeyTracker.HotKey::hot).hasSize(1);
+    }
+
+    @Test
+    void topTableIsBoundedByCapacity() {
+        for (int user = 0; user < 10; user++) {
+            for (int i = 0; i <= user * 20; i++) {
+                tracker.record("user-" + user);
+            }
+        }
+
+        assertThat(tracker.snapshot()).hasSizeLessThanOrEqualTo(4)
+                .extracting(HotKeyTracker.HotKey::userId).contains("user-9", "user-8");
+    }
+
+    @Test
+    void countsDecayEachWindowUntilTheUserIsNoLongerHot() {
+        for (int i = 0; i < 100; i++) {
+            tracker.record("heavy");
+        }
+        assertThat(tracker.snapshot().getFirst().hot()).isTrue();
+
+        tracker.decay();
+        tracker.record("other");
+
+        // The top table refreshes a tracked count only as it grows by ~6%, so it may trail the sketch
+        assertThat(tracker.snapshot().getFirst().requests()).isBetween(45L, 50L);
+        tracker.decay();
+        assertThat(tracker.record("heavy")).isFalse();
+        assertThat(registry.get("proxy.hotkeys.requests").tag("user", "heavy").gauge().value()).isBetween(22.0, 25.0);
+    }
+}
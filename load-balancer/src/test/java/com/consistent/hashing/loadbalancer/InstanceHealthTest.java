@@ -0,0 +1,131 @@
+package com.consistent.hashing.loadbalancer;
+
+import com.consistent.hashing.common.ServiceInstance;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InstanceHealthTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ServiceInstance a = new ServiceInstance(1, "a", 8080);
+    private final ServiceInstance b = new ServiceInstance(2, "b", 8080);
+    private final ServiceInstance c = new ServiceInstance(3, "c", 8080);
+    private final ServiceInstance d = new ServiceInstance(4, "d", 8080);
+
+    private SimpleMeterRegistry registry;
+    private long now;
+    private InstanceHealth health;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        health = new InstanceHealth(0.5, 4, 3, 0.9, 3.0, Duration.ofSeconds(10), Duration.ofSeconds(30),
+                50, Duration.ofSeconds(10), registry, () -> now);
+    }
+
+    @Test
+    void consecutiveFailuresEjectUntilTheEjectionTimeRunsOut() {
+        warmUp(a, b);
+
+        for (int i = 0; i < 3; i++) {
+            health.record(a, 5 * MS, true);
+        }
+
+        assertThat(health.isEjected(a)).isTrue();
+        assertThat(health.degraded()).isTrue();
+        assertThat(health.admits(a, 42)).isFalse();
+        assertThat(health.admits(b, 42)).isTrue();
+        assertThat(registry.get("proxy.instance.ejected").tag("instance", "1").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("proxy.instance.ejections").tag("instance", "1").counter().count()).isEqualTo(1);
+
+        now += TimeUnit.SECONDS.toNanos(10);
+        assertThat(health.isEjected(a)).isFalse();
+    }
+
+    @Test
+    void slowStartReadmitsAGrowingShareOfKeys() {
+        warmUp(a, b);
+        for (int i = 0; i < 3; i++) {
+            health.record(a, 5 * MS, true);
+        }
+        now += TimeUnit.SECONDS.toNanos(10);
+
+        assertThat(admitted(a)).isZero();
+        now += TimeUnit.SECONDS.toNanos(3);
+        int early = admitted(a);
+        now += TimeUnit.SECONDS.toNanos(4);
+        int later = admitted(a);
+        assertThat(early).isBetween(200, 400);
+        assertThat(later).isBetween(600, 800);
+
+        now += TimeUnit.SECONDS.toNanos(3);
+        assertThat(admitted(a)).isEqualTo(1000);
+        assertThat(health.degraded()).isFalse();
+    }
+
+    @Test
+    void latencyOutlierIsEjected() {
+        warmUp(a, b, c, d);
+        // Let the peer median refresh
+        now += TimeUnit.SECONDS.toNanos(2);
+
+        for (int i = 0; i < 4; i++) {
+            health.record(d, 100 * MS, false);
+        }
+
+        assertThat(health.isEjected(d)).isTrue();
+        assertThat(health.isEjected(a)).isFalse();
+    }
+
+    @Test
+    void neverEjectsMoreThanTheMaximumShare() {
+        warmUp(a, b);
+
+        for (int i = 0; i < 3; i++) {
+            health.record(a, 5 * MS, true);
+            health.record(b, 5 * MS, true);
+        }
+
+        assertThat(health.isEjected(a)).isTrue();
+        assertThat(health.isEjected(b)).isFalse();
+    }
+
+    @Test
+    void forgettingAnInstanceDropsItsStateAndMeters() {
+        warmUp(a, b);
+        for (int i = 0; i < 3; i++) {
+            health.record(a, 5 * MS, true);
+        }
+
+        health.forget(a);
+
+        assertThat(health.isEjected(a)).isFalse();
+        assertThat(health.degraded()).isFalse();
+        assertThat(registry.find("proxy.instance.ejected").tag("instance", "1").gauge()).isNull();
+    }
+
+    private void warmUp(ServiceInstance... instances) {
+        for (int i = 0; i < 4; i++) {
+            for (ServiceInstance instance : instances) {
+                health.record(instance, 5 * MS, false);
+            }
+        }
+    }
+
+    private int admitted(ServiceInstance instance) {
+        int admitted = 0;
+        for (long key = 0; key < 1000; key++) {
+            if (health.admits(instance, key * 0x9e3779b97f4a7c15L)) {
+                admitted++;
+            }
+        }
+        return admitted;
+    }
+}
@@ -1,6 +1,7 @@
 package com.consistent.hashing.loadbalancer;
 
 import com.consistent.hashing.common.ServiceInstance;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -10,10 +11,22 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -26,13 +39,34 @@ class ProxyControllerTest {
 
     private MockWebServer mockBackend;
 
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ProxyMetrics proxyMetrics = new ProxyMetrics(meterRegistry);
+
     @BeforeEach
     void setUp() throws Exception {
         mockBackend = new MockWebServer();
         mockBackend.start();
 
-        ProxyController controller = new ProxyController(serviceRegistry, WebClient.builder());
-        webTestClient = WebTestClient.bindToController(controller).build();
+        webTestClient = client(policy(false, 1));
+    }
+
+    private WebTestClient client(FailoverPolicy policy) {
+        return client(policy, new HotKeyTracker(16, 0.02, 100, 3, 1024,
+                new SimpleMeterRegistry(), null));
+    }
+
+    private WebTestClient client(FailoverPolicy policy, HotKeyTracker hotKeys) {
+        return client(policy, hotKeys, WebClient.builder());
+    }
+
+    private WebTestClient client(FailoverPolicy policy, HotKeyTracker hotKeys, WebClient.Builder webClient) {
+        ProxyController controller = new ProxyController(serviceRegistry, webClient, policy, hotKeys, proxyMetrics);
+        return WebTestClient.bindToController(controller).build();
+    }
+
+    private static FailoverPolicy policy(boolean hedge, int retries) {
+        return new FailoverPolicy(hedge, Duration.ofMillis(20), Duration.ofMillis(20),
+                retries, 0.1, 10, new SimpleMeterRegistry());
     }
 
     @AfterEach
@@ -59,9 +93,17 @@ class ProxyControllerTest {
                 .isEqualTo("Missing X-User-Id header");
     }
 
+    @Test
+    void internalEndpointsAreNotProxied() {
+        webTestClient.post().uri("/internal/cache/export")
+                .header("X-User-Id", "user-1")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
     @Test
     void noAvailableInstancesReturns503() {
-        when(serviceRegistry.resolve("user-1")).thenReturn(null);
+        when(serviceRegistry.acquireRead("user-1")).thenReturn(null);
 
         webTestClient.get().uri("/api/process")
                 .header("X-User-Id", "user-1")
@@ -69,6 +111,8 @@ class ProxyControllerTest {
                 .expectStatus().isEqualTo(503)
                 .expectBody(String.class)
                 .isEqualTo("No available service instances");
+
+        verify(serviceRegistry, never()).release(null);
     }
 
     @Test
@@ -79,19 +123,315 @@ class ProxyControllerTest {
 
         String host = mockBackend.getHostName();
         int port = mockBackend.getPort();
-        when(serviceRegistry.resolve("user-1"))
-                .thenReturn(new ServiceInstance(7, host, port));
+        ServiceInstance instance = new ServiceInstance(7, host, port);
+        proxyMetrics.join(instance);
+        when(serviceRegistry.acquireRead("user-1")).thenReturn(instance);
 
         webTestClient.get().uri("/api/process")
                 .header("X-User-Id", "user-1")
                 .exchange()
                 .expectStatus().isOk()
                 .expectHeader().valueEquals("X-Routed-To", "7")
+                .expectHeader().valueMatches("Server-Timing",
+                        "route;dur=\\d+\\.\\d{3}, lb;dur=\\d+\\.\\d{3}, upstream;dur=\\d+\\.\\d{3}")
                 .expectBody(String.class)
                 .isEqualTo("{\"result\":\"ok\"}");
 
         RecordedRequest recorded = mockBackend.takeRequest();
         assertThat(recorded.getPath()).isEqualTo("/api/process");
         assertThat(recorded.getHeader("X-User-Id")).isEqualTo("user-1");
+        verify(serviceRegistry, timeout(1000)).release(instance);
+        assertThat(meterRegistry.get("proxy.route.lookup").tag("instance", "7").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("proxy.instance.requests").tags("instance", "7", "outcome", "success")
+                .timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("proxy.requests.in.flight").gauge().value()).isZero();
+    }
+
+    @Test
+    void upstreamErrorStatusAndHeadersAreForwarded() {
+        mockBackend.enqueue(new MockResponse()
+                .setResponseCode(500)
+                .addHeader("X-Upstream", "api")
+                .addHeader("Connection", "close")
+                .setBody("boom"));
+
+        ServiceInstance instance = new ServiceInstance(7, mockBackend.getHostName(), mockBackend.getPort());
+        when(serviceRegistry.acquireRead("user-1")).thenReturn(instance);
+
+        webTestClient.get().uri("/api/process")
+                .header("X-User-Id", "user-1")
+                .exchange()
+                .expectStatus().isEqualTo(500)
+                .expectHeader().valueEquals("X-Upstream", "api")
+                .expectHeader().valueEquals("X-Routed-To", "7")
+                .expectHeader().doesNotExist("Connection")
+                .expectBody(String.class)
+                .isEqualTo("boom");
+
+        verify(serviceRegistry, timeout(1000)).release(instance);
+    }
+
+    @Test
+    void requestBodyAndQueryAreStreamedUpstream() throws Exception {
+        mockBackend.enqueue(new MockResponse().setResponseCode(201).setBody("created"));
+
+        ServiceInstance instance = new ServiceInstance(7, mockBackend.getHostName(), mockBackend.getPort());
+        when(serviceRegistry.acquire("user-1")).thenReturn(instance);
+
+        String payload = "x".repeat(256 * 1024);
+        webTestClient.post()
+                .uri(builder -> builder.path("/api/items").queryParam("tag", "a b").build())
+                .header("X-User-Id", "user-1")
+                .bodyValue(payload)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(String.class)
+                .isEqualTo("created");
+
+        RecordedRequest recorded = mockBackend.takeRequest();
+        assertThat(recorded.getMethod()).isEqualTo("POST");
+        assertThat(recorded.getPath()).isEqualTo("/api/items?tag=a%20b");
+        assertThat(recorded.getBody().readUtf8()).isEqualTo(payload);
+    }
+
+    @Test
+    void connectFailureIsRetriedOnNextReplica() throws Exception {
+        MockWebServer deadBackend = new MockWebServer();
+        deadBackend.start();
+        ServiceInstance dead = new ServiceInstance(1, deadBackend.getHostName(), deadBackend.getPort());
+        deadBackend.shutdown();
+        mockBackend.enqueue(new MockResponse().setBody("ok"));
+        ServiceInstance fallback = new ServiceInstance(2, mockBackend.getHostName(), mockBackend.getPort());
+        proxyMetrics.join(dead);
+        proxyMetrics.join(fallback);
+        when(serviceRegistry.acquireRead("user-1")).thenReturn(dead);
+        when(serviceRegistry.resolveReplicas("user-1", 2)).thenReturn(List.of(dead, fallback));
+
+        webTestClient.get().uri("/api/process")
+                .header("X-User-Id", "user-1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Routed-To", "2")
+                .expectBody(String.class)
+                .isEqualTo("ok");
+
+        verify(serviceRegistry, timeout(1000)).release(dead);
+        assertThat(meterRegistry.get("proxy.instance.requests").tags("instance", "1", "outcome", "error")
+                .timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("proxy.instance.requests").tags("instance", "2", "outcome", "success")
+                .timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void connectFailureWithoutRetriesIsReported() throws Exception {
+        MockWebServer deadBackend = new MockWebServer();
+        deadBackend.start();
+        ServiceInstance dead = new ServiceInstance(1, deadBackend.getHostName(), deadBackend.getPort());
+        deadBackend.shutdown();
+        when(serviceRegistry.acquireRead("user-1")).thenReturn(dead);
+
+        client(policy(false, 0)).get().uri("/api/process")
+                .header("X-User-Id", "user-1")
+                .exchange()
+                .expectStatus().is5xxServerError();
+
+        verify(serviceRegistry, never()).resolveReplicas("user-1", 1);
+    }
+
+    @Test
+    void serverErrorOnReadIsRetriedOnNextReplica() throws Exception {
+        MockWebServer otherBackend = new MockWebServer();
+        otherBackend.start();
+        try {
+            mockBackend.enqueue(new MockResponse().setResponseCode(503).setBody("unavailable"));
+            otherBackend.enqueue(new MockResponse().setBody("ok"));
+            ServiceInstance failing = new ServiceInstance(1, mockBackend.getHostName(), mockBackend.getPort());
+            ServiceInstance fallback = new ServiceInstance(2, otherBackend.getHostName(), otherBackend.getPort());
+            proxyMetrics.join(failing);
+            when(serviceRegistry.acquireRead("user-1")).thenReturn(failing);
+            when(serviceRegistry.resolveReplicas("user-1", 2)).thenReturn(List.of(failing, fallback));
+
+            webTestClient.get().uri("/api/process")
+                    .header("X-User-Id", "user-1")
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectHeader().valueEquals("X-Routed-To", "2")
+                    .expectBody(String.class)
+                    .isEqualTo("ok");
+
+            verify(serviceRegistry).acquireNode(fallback);
+            verify(serviceRegistry, timeout(1000)).release(failing);
+            verify(serviceRegistry, timeout(1000)).release(fallback);
+            assertThat(meterRegistry.get("proxy.instance.requests").tags("instance", "1", "outcome", "error")
+                    .timer().count()).isEqualTo(1);
+        } finally {
+            otherBackend.shutdown();
+        }
+    }
+
+    @Test
+    void serverErrorOnRequestWithBodyIsNotRetried() throws Exception {
+        mockBackend.enqueue(new MockResponse().setResponseCode(500).setBody("boom"));
+        ServiceInstance failing = new ServiceInstance(1, mockBackend.getHostName(), mockBackend.getPort());
+        ServiceInstance other = new ServiceInstance(2, "unused", 1);
+        when(serviceRegistry.acquire("user-1")).thenReturn(failing);
+        when(serviceRegistry.resolveReplicas("user-1", 2)).thenReturn(List.of(failing, other));
+
+        webTestClient.post().uri("/api/items")
+                .header("X-User-Id", "user-1")
+                .bodyValue("payload")
+                .exchange()
+                .expectStatus().isEqualTo(500)
+                .expectBody(String.class)
+                .isEqualTo("boom");
+
+        verify(serviceRegistry, never()).acquireNode(other);
+        verify(serviceRegistry, timeout(1000)).release(failing);
+    }
+
+    @Test
+    void responseTimeoutOnReadIsRetriedOnNextReplica() throws Exception {
+        MockWebServer otherBackend = new MockWebServer();
+        otherBackend.start();
+        try {
+            mockBackend.enqueue(new MockResponse().setBody("late").setHeadersDelay(2, TimeUnit.SECONDS));
+            otherBackend.enqueue(new MockResponse().setBody("ok"));
+            ServiceInstance slow = new ServiceInstance(1, mockBackend.getHostName(), mockBackend.getPort());
+            ServiceInstance fallback = new ServiceInstance(2, otherBackend.getHostName(), otherBackend.getPort());
+            when(serviceRegistry.acquireRead("user-1")).thenReturn(slow);
+            when(serviceRegistry.resolveReplicas("user-1", 2)).thenReturn(List.of(slow, fallback));
+            WebClient.Builder webClient = WebClient.builder().clientConnector(new ReactorClientHttpConnector(
+                    HttpClient.create().responseTimeout(Duration.ofMillis(200))));
+
+            client(policy(false, 1), new HotKeyTracker(16, 0.02, 100, 3, 1024,
+                    new SimpleMeterRegistry(), null), webClient)
+                    .get().uri("/api/process")
+                    .header("X-User-Id", "user-1")
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectHeader().valueEquals("X-Routed-To", "2");
+
+            verify(serviceRegistry, timeout(1000)).release(slow);
+            verify(serviceRegistry, timeout(1000)).release(fallback);
+        } finally {
+            otherBackend.shutdown();
+        }
+    }
+
+    @Test
+    void slowOwnerIsHedgedToNextReplica() throws Exception {
+        MockWebServer slowBackend = new MockWebServer();
+        slowBackend.start();
+        try {
+            slowBackend.enqueue(new MockResponse().setBody("slow").setHeadersDelay(1, TimeUnit.SECONDS));
+            mockBackend.enqueue(new MockResponse().setBody("fast"));
+            ServiceInstance slow = new ServiceInstance(1, slowBackend.getHostName(), slowBackend.getPort());
+            ServiceInstance fast = new ServiceInstance(2, mockBackend.getHostName(), mockBackend.getPort());
+            when(serviceRegistry.acquireRead("user-1")).thenReturn(slow);
+            when(serviceRegistry.resolveReplicas("user-1", 3)).thenReturn(List.of(slow, fast));
+
+            client(policy(true, 1)).get().uri("/api/process")
+                    .header("X-User-Id", "user-1")
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectHeader().valueEquals("X-Routed-To", "2")
+                    .expectBody(String.class)
+                    .isEqualTo("fast");
+
+            assertThat(slowBackend.getRequestCount()).isEqualTo(1);
+            assertThat(mockBackend.getRequestCount()).isEqualTo(1);
+            verify(serviceRegistry).acquireNode(fast);
+            verify(serviceRegistry, timeout(1000)).release(fast);
+            // The losing attempt is cancelled, and its instance released with it
+            verify(serviceRegistry, timeout(1000)).release(slow);
+        } finally {
+            slowBackend.shutdown();
+        }
+    }
+
+    @Test
+    void hotUserReadsAreSpreadOverReplicas() {
+        mockBackend.enqueue(new MockResponse().setBody("ok"));
+        ServiceInstance replica = new ServiceInstance(3, mockBackend.getHostName(), mockBackend.getPort());
+        when(serviceRegistry.acquireSpread("hot-user", 3)).thenReturn(replica);
+        HotKeyTracker hotKeys = new HotKeyTracker(16, 0.0, 1, 3, 1024,
+                new SimpleMeterRegistry(), null);
+
+        client(policy(false, 0), hotKeys).get().uri("/api/process")
+                .header("X-User-Id", "hot-user")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Routed-To", "3");
+
+        assertThat(hotKeys.snapshot()).extracting(HotKeyTracker.HotKey::userId).containsExactly("hot-user");
+        verify(serviceRegistry, timeout(1000)).release(replica);
+    }
+
+    @Test
+    void batchIsSplitByOwnerAndMerged() throws Exception {
+        MockWebServer otherBackend = new MockWebServer();
+        otherBackend.start();
+        try {
+            mockBackend.enqueue(new MockResponse()
+                    .setBody("{\"userId\":\"a\"}\n{\"userId\":\"c\"}\n")
+                    .addHeader("Content-Type", "application/x-ndjson"));
+            otherBackend.enqueue(new MockResponse()
+                    .setBody("{\"userId\":\"b\"}\n")
+                    .addHeader("Content-Type", "application/x-ndjson"));
+
+            ServiceInstance first = new ServiceInstance(1, mockBackend.getHostName(), mockBackend.getPort());
+            ServiceInstance second = new ServiceInstance(2, otherBackend.getHostName(), otherBackend.getPort());
+            when(serviceRegistry.acquire("a")).thenReturn(first);
+            when(serviceRegistry.acquire("b")).thenReturn(second);
+            when(serviceRegistry.acquire("c")).thenReturn(first);
+
+            String body = webTestClient.post().uri("/api/process/batch")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(List.of("a", "b", "c", "a"))
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectHeader().valueEquals("X-Routed-To", "1,2")
+                    .expectBody(String.class)
+                    .returnResult().getResponseBody();
+
+            assertThat(body.split("\n")).containsExactlyInAnyOrder(
+                    "{\"userId\":\"a\"}", "{\"userId\":\"c\"}", "{\"userId\":\"b\"}");
+            assertThat(mockBackend.takeRequest().getBody().readUtf8()).isEqualTo("[\"a\",\"c\"]");
+            assertThat(otherBackend.takeRequest().getBody().readUtf8()).isEqualTo("[\"b\"]");
+            verify(serviceRegistry, timeout(1000).times(2)).release(first);
+            verify(serviceRegistry, timeout(1000)).release(second);
+        } finally {
+            otherBackend.shutdown();
+        }
+    }
+
+    @Test
+    void failedBatchShareBecomesErrorLines() throws Exception {
+        MockWebServer deadBackend = new MockWebServer();
+        deadBackend.start();
+        ServiceInstance dead = new ServiceInstance(2, deadBackend.getHostName(), deadBackend.getPort());
+        deadBackend.shutdown();
+        mockBackend.enqueue(new MockResponse()
+                .setBody("{\"userId\":\"a\"}\n")
+                .addHeader("Content-Type", "application/x-ndjson"));
+        ServiceInstance healthy = new ServiceInstance(1, mockBackend.getHostName(), mockBackend.getPort());
+        when(serviceRegistry.acquire("a")).thenReturn(healthy);
+        when(serviceRegistry.acquire("b")).thenReturn(dead);
+        when(serviceRegistry.acquire("c")).thenReturn(dead);
+
+        String body = webTestClient.post().uri("/api/process/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of("a", "b", "c"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .returnResult().getResponseBody();
+
+        assertThat(body.split("\n")).containsExactlyInAnyOrder(
+                "{\"userId\":\"a\"}",
+                "{\"userId\":\"b\",\"instanceId\":2,\"error\":\"Instance unavailable\"}",
+                "{\"userId\":\"c\",\"instanceId\":2,\"error\":\"Instance unavailable\"}");
+        verify(serviceRegistry, timeout(1000).times(2)).release(dead);
+        verify(serviceRegistry).report(eq(dead), anyLong(), eq(true));
     }
 }
@@ -0,0 +1,43 @@
+package com.consistent.hashing.loadbalancer;
+
+import com.consistent.hashing.common.ServiceInstance;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProxyMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ProxyMetrics metrics = new ProxyMetrics(registry);
+    private final ServiceInstance instance = new ServiceInstance(3, "api-3", 8081);
+
+    @Test
+    void membersGetMetersThatAreRemovedWhenTheyLeave() {
+        metrics.join(instance);
+        ProxyMetrics.InstanceMeters meters = metrics.instance(instance);
+        meters.recordUpstream(1_000_000, false);
+
+        assertThat(metrics.instance(instance)).isSameAs(meters);
+        assertThat(registry.get("proxy.instance.requests").tags("instance", "3", "outcome", "success")
+                .timer().count()).isEqualTo(1);
+
+        metrics.forget(instance);
+
+        assertThat(registry.find("proxy.instance.requests").tag("instance", "3").meters()).isEmpty();
+    }
+
+    @Test
+    void requestsFinishingAfterTheInstanceLeftDoNotRegisterItAgain() {
+        metrics.join(instance);
+        metrics.instance(instance);
+        metrics.forget(instance);
+
+        metrics.instance(instance).recordUpstream(1_000_000, true);
+        metrics.instance(instance).recordRoute(1_000);
+
+        assertThat(registry.find("proxy.instance.requests").meters()).isEmpty();
+        assertThat(registry.find("proxy.route.lookup").meters()).isEmpty();
+        assertThat(registry.find("proxy.instance.in.flight").meters()).isEmpty();
+    }
+}
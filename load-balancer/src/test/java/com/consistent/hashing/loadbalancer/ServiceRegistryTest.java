@@ -0,0 +1,171 @@
+package com.consistent.hashing.loadbalancer;
+
+import com.consistent.hashing.common.ServiceInstance;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.consistent.hashing.common.RegistrationPayload;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class ServiceRegistryTest {
+
+    private final ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+    private SimpleMeterRegistry registry;
+    private ServiceRegistry serviceRegistry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        InstanceHealth health = new InstanceHealth(0.1, 20, 5, 0.5, 3.0, Duration.ofSeconds(30),
+                Duration.ofSeconds(300), 50, Duration.ofSeconds(30), registry);
+        serviceRegistry = new ServiceRegistry(null, publisher, health, new ProxyMetrics(registry), registry,
+                "bounded-load", 16, 1.25, 1, Duration.ofMillis(100));
+    }
+
+    /**
+     * Completes the initial load, so events staged afterwards open a debounce
+     * window of their own instead of racing the initial apply.
+     */
+    private void initialize() throws InterruptedException {
+        serviceRegistry.onInitialized();
+        assertThat(serviceRegistry.awaitInitialLoad(2, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        serviceRegistry.destroy();
+    }
+
+    @Test
+    void initialRegistrationsAreAppliedInOneBatch() throws InterruptedException {
+        for (int i = 1; i <= 3; i++) {
+            serviceRegistry.stage(node(i));
+        }
+        serviceRegistry.stage(new ChildData("/services/api", null, new byte[0]));
+        // Raced the initial load with a newer version: only that one is parsed and applied
+        serviceRegistry.stage(compactNode(2, 3.0));
+        assertThat(serviceRegistry.size()).isZero();
+
+        initialize();
+
+        verify(publisher, timeout(2000)).publishEvent(any(RingChangedEvent.class));
+        assertThat(serviceRegistry.size()).isEqualTo(3);
+        assertThat(registry.get("ring.rebuilds").counter().count()).isEqualTo(1);
+        // Measures propagation of changes, not the age of registrations found at startup
+        assertThat(registry.get("ring.sync.lag").timer().count()).isZero();
+        assertThat(registry.get("ring.sync.pending").gauge().value()).isZero();
+        long routedToCompact = IntStream.range(0, 3000)
+                .filter(i -> serviceRegistry.resolve("user-" + i).host().equals("compact-2"))
+                .count();
+        assertThat(routedToCompact).isBetween(1200L, 2400L);
+    }
+
+    @Test
+    void burstOfEventsIsAppliedAsOneRingSwap() throws InterruptedException {
+        initialize();
+        for (int i = 1; i <= 5; i++) {
+            serviceRegistry.stage(node(i));
+        }
+        // Joined and left within the window: never reaches the ring
+        serviceRegistry.stageRemoval(node(5));
+        assertThat(serviceRegistry.size()).isZero();
+
+        ArgumentCaptor<RingChangedEvent> changed = ArgumentCaptor.forClass(RingChangedEvent.class);
+        verify(publisher, timeout(2000)).publishEvent(changed.capture());
+
+        assertThat(serviceRegistry.size()).isEqualTo(4);
+        assertThat(changed.getValue().after().size()).isEqualTo(4);
+        assertThat(serviceRegistry.members()).containsOnlyKeys("1", "2", "3", "4").containsValue(1.0);
+        assertThat(registry.get("ring.members").gauge().value()).isEqualTo(4);
+        assertThat(changed.getValue().moved()).isNotEmpty()
+                .allSatisfy(range -> assertThat(range.from()).isNull());
+        assertThat(registry.get("ring.rebuilds").counter().count()).isEqualTo(1);
+        assertThat(registry.get("ring.membership.changes").counter().count()).isEqualTo(5);
+        assertThat(registry.get("ring.sync.lag").timer().count()).isEqualTo(5);
+        assertThat(registry.get("ring.sync.lag").timer().max(TimeUnit.SECONDS)).isLessThan(2.0);
+        assertThat(registry.get("ring.moved.keyspace").summary().totalAmount()).isEqualTo(1.0);
+    }
+
+    @Test
+    void removalMovesOnlyTheLeavingInstancesRanges() throws InterruptedException {
+        initialize();
+        for (int i = 1; i <= 4; i++) {
+            serviceRegistry.stage(node(i));
+        }
+        verify(publisher, timeout(2000)).publishEvent(any(RingChangedEvent.class));
+
+        serviceRegistry.stageRemoval(node(2));
+        ArgumentCaptor<RingChangedEvent> changed = ArgumentCaptor.forClass(RingChangedEvent.class);
+        verify(publisher, timeout(2000).times(2)).publishEvent(changed.capture());
+
+        ServiceInstance leaving = new ServiceInstance(2, "api-2", 8081);
+        assertThat(changed.getValue().moved()).allSatisfy(range -> assertThat(range.from()).isEqualTo(leaving));
+        assertThat(registry.get("ring.rebuilds").counter().count()).isEqualTo(2);
+        // Whole key space on the first swap, then the leaving instance's share
+        assertThat(registry.get("ring.moved.keyspace").summary().totalAmount() - 1.0).isBetween(0.05, 0.6);
+    }
+
+    @Test
+    void namedInstanceGetsItsRangesBackAfterARestart() throws InterruptedException {
+        serviceRegistry.stage(node(1));
+        serviceRegistry.stage(named("api-b"));
+        // Purely numeric names would clash with sequence numbers
+        serviceRegistry.stage(new ChildData("/services/api/node-7", stat(), node(7).getData()));
+        initialize();
+        verify(publisher, timeout(2000)).publishEvent(any(RingChangedEvent.class));
+        assertThat(serviceRegistry.size()).isEqualTo(2);
+        List<ServiceInstance> before = IntStream.range(0, 1000)
+                .mapToObj(i -> serviceRegistry.resolve("user-" + i))
+                .toList();
+        assertThat(before).contains(new ServiceInstance(ServiceInstance.idFor("api-b"), "api-b", 8081));
+
+        serviceRegistry.stageRemoval(named("api-b"));
+        verify(publisher, timeout(2000).times(2)).publishEvent(any(RingChangedEvent.class));
+        // A sequential instance would come back with a new ID and new points
+        serviceRegistry.stage(named("api-b"));
+        verify(publisher, timeout(2000).times(3)).publishEvent(any(RingChangedEvent.class));
+
+        assertThat(IntStream.range(0, 1000).mapToObj(i -> serviceRegistry.resolve("user-" + i)).toList())
+                .isEqualTo(before);
+    }
+
+    private static ChildData named(String name) {
+        byte[] data = ("{\"host\":\"" + name + "\",\"port\":8081}").getBytes(StandardCharsets.UTF_8);
+        return new ChildData("/services/api/node-" + name, stat(), data);
+    }
+
+    private static ChildData node(int id) {
+        byte[] data = ("{\"host\":\"api-" + id + "\",\"port\":8081,\"weight\":1}").getBytes(StandardCharsets.UTF_8);
+        return new ChildData(path(id), stat(), data);
+    }
+
+    private static ChildData compactNode(int id, double weight) {
+        return new ChildData(path(id), stat(), new RegistrationPayload("compact-" + id, 8081, weight).encode());
+    }
+
+    private static String path(int id) {
+        return String.format("/services/api/instance-%010d", id);
+    }
+
+    private static Stat stat() {
+        Stat stat = new Stat();
+        stat.setMtime(System.currentTimeMillis());
+        return stat;
+    }
+}
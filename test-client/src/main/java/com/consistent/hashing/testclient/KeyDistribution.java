@@ -0,0 +1,158 @@
+package com.consistent.hashing.testclient;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Picks the user of each request. Only the generator thread calls
+ * {@link #next}, so implementations need no synchronization, and a fixed seed
+ * replays the same sequence of users.
+ */
+interface KeyDistribution {
+
+    /**
+     * The user of request {@code sequence}, counting from 0 over the whole run.
+     */
+    String next(long sequence);
+
+    /**
+     * Parses {@code load.distribution}:
+     * <ul>
+     *   <li>{@code uniform} - every user equally often</li>
+     *   <li>{@code zipf[:exponent]} - user {@code k} (from 0) in proportion to
+     *       {@code 1 / (k + 1)^exponent}, exponent 1 by default</li>
+     *   <li>{@code hotspot[:fraction[:share]]} - {@code share} of requests go to
+     *       the first {@code fraction} of users, 0.01 and 0.9 by default</li>
+     *   <li>{@code sequential} - users in order, wrapping around</li>
+     *   <li>{@code trace:path} - the user IDs in a file, one per line (the first
+     *       comma-separated column), in order and wrapping around</li>
+     * </ul>
+     */
+    static KeyDistribution parse(String spec, int users, long seed) {
+        String[] parts = spec.trim().split(":", 2);
+        String args = parts.length > 1 ? parts[1] : "";
+        SplittableRandom random = new SplittableRandom(seed);
+        if (users < 1) {
+            throw new IllegalArgumentException("load.num-users must be positive: " + users);
+        }
+        return switch (parts[0].toLowerCase(Locale.ROOT)) {
+            case "uniform" -> sequence -> String.valueOf(random.nextInt(users));
+            case "zipf" -> new Zipf(users, args.isEmpty() ? 1.0 : positive(args, spec), random);
+            case "hotspot" -> hotspot(users, args, spec, random);
+            case "sequential" -> sequence -> String.valueOf(sequence % users);
+            case "trace" -> trace(Path.of(args));
+            default -> throw new IllegalArgumentException("Unknown load.distribution: " + spec);
+        };
+    }
+
+    private static KeyDistribution hotspot(int users, String args, String spec, SplittableRandom random) {
+        String[] values = args.isEmpty() ? new String[0] : args.split(":");
+        double fraction = values.length > 0 ? positive(values[0], spec) : 0.01;
+        double share = values.length > 1 ? positive(values[1], spec) : 0.9;
+        if (fraction >= 1 || share > 1) {
+            throw new IllegalArgumentException("Hotspot fraction must be below 1 and share at most 1: " + spec);
+        }
+        int hot = (int) Math.max(1, Math.min(users - 1L, Math.round(users * fraction)));
+        return sequence -> String.valueOf(random.nextDouble() < share || hot == users
+                ? random.nextInt(hot)
+                : hot + random.nextInt(users - hot));
+    }
+
+    private static KeyDistribution trace(Path path) {
+        String[] userIds;
+        try (Stream<String> lines = Files.lines(path)) {
+            userIds = lines.map(line -> {
+                        int comma = line.indexOf(',');
+                        return (comma < 0 ? line : line.substring(0, comma)).trim();
+                    })
+                    .filter(userId -> !userId.isEmpty() && !userId.startsWith("#"))
+                    .toArray(String[]::new);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read trace " + path, e);
+        }
+        if (userIds.length == 0) {
+            throw new IllegalArgumentException("Trace has no user IDs: " + path);
+        }
+        return sequence -> userIds[(int) (sequence % userIds.length)];
+    }
+
+    private static double positive(String value, String spec) {
+        double parsed = Double.parseDouble(value.trim());
+        if (!(parsed > 0) || Double.isInfinite(parsed)) {
+            throw new IllegalArgumentException("Expected a positive number in load.distribution: " + spec);
+        }
+        return parsed;
+    }
+
+    /**
+     * Zipf sampling by rejection-inversion (Hörmann and Derflinger, 1996): a
+     * constant expected cost per sample and no tables, so it scales to millions
+     * of users.
+     */
+    final class Zipf implements KeyDistribution {
+
+        private final int users;
+        private final double exponent;
+        private final SplittableRandom random;
+        private final double hIntegralX1;
+        private final double hIntegralUsers;
+        private final double s;
+
+        Zipf(int users, double exponent, SplittableRandom random) {
+            this.users = users;
+            this.exponent = exponent;
+            this.random = random;
+            this.hIntegralX1 = hIntegral(1.5) - 1.0;
+            this.hIntegralUsers = hIntegral(users + 0.5);
+            this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        @Override
+        public String next(long sequence) {
+            return String.valueOf(sample() - 1);
+        }
+
+        /**
+         * A rank from 1 to {@code users}.
+         */
+        long sample() {
+            while (true) {
+                double u = hIntegralUsers + random.nextDouble() * (hIntegralX1 - hIntegralUsers);
+                double x = hIntegralInverse(u);
+                long k = Math.min(Math.max((long) (x + 0.5), 1), users);
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        // Integral of h, and its inverse, written to stay accurate near exponent 1
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return expm1OverX((1 - exponent) * logX) * logX;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = Math.max(x * (1 - exponent), -1);
+            return Math.exp(log1pOverX(t) * x);
+        }
+
+        private static double log1pOverX(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        private static double expm1OverX(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.consistent.hashing.testclient;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies of a load run or phase, in microseconds, per reporting interval and
+ * in total, with its cache hits and the instances its requests were routed to.
+ * <p>
+ * The corrected latency of a request runs from the time the schedule meant to
+ * send it, so a stalled server is charged for the requests that queued behind
+ * the stall instead of hiding them (coordinated omission). The uncorrected
+ * latency runs from the actual send and is kept for comparison.
+ */
+final class LatencyStats {
+
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final Recorder corrected = new Recorder(HIGHEST_MICROS, 3);
+    private final Recorder uncorrected = new Recorder(HIGHEST_MICROS, 3);
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final Map<String, LongAdder> routedTo = new ConcurrentHashMap<>();
+    private final long startNanos;
+
+    // Guarded by this
+    private final Histogram totalCorrected = new Histogram(HIGHEST_MICROS, 3);
+    private final Histogram totalUncorrected = new Histogram(HIGHEST_MICROS, 3);
+    private final List<Interval> intervals = new ArrayList<>();
+    private Histogram intervalCorrected;
+    private Histogram intervalUncorrected;
+    private long totalErrors;
+    private long totalHits;
+    private long lastSampleNanos;
+
+    LatencyStats(long startNanos) {
+        this.startNanos = startNanos;
+        this.lastSampleNanos = startNanos;
+    }
+
+    /**
+     * Records one completed request; safe to call from any thread.
+     * {@code instance} is its {@code X-Routed-To} header, or {@code null}.
+     */
+    void record(long intendedNanos, long sentNanos, long endNanos, boolean ok, boolean hit, String instance) {
+        corrected.recordValue(micros(endNanos - intendedNanos));
+        uncorrected.recordValue(micros(endNanos - sentNanos));
+        if (!ok) {
+            errors.increment();
+        }
+        if (hit) {
+            hits.increment();
+        }
+        if (instance != null) {
+            routedTo.computeIfAbsent(instance, key -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Closes the current interval at {@code nowNanos} and returns its figures.
+     */
+    synchronized Interval sample(long nowNanos) {
+        long[] counts = drain();
+        Interval interval = Interval.of(seconds(nowNanos - startNanos), seconds(nowNanos - lastSampleNanos),
+                intervalCorrected, intervalUncorrected, counts[0], counts[1]);
+        intervals.add(interval);
+        lastSampleNanos = nowNanos;
+        return interval;
+    }
+
+    /**
+     * Every request recorded so far, over a run or phase that sent its last
+     * request at {@code endNanos}. Call once in-flight requests have completed.
+     */
+    synchronized Interval total(long endNanos) {
+        drain();
+        double elapsed = seconds(endNanos - startNanos);
+        return Interval.of(elapsed, elapsed, totalCorrected, totalUncorrected, totalErrors, totalHits);
+    }
+
+    /**
+     * Requests per {@code X-Routed-To} instance.
+     */
+    Map<String, Long> routedTo() {
+        Map<String, Long> counts = new TreeMap<>();
+        routedTo.forEach((instance, count) -> counts.put(instance, count.sum()));
+        return counts;
+    }
+
+    long startNanos() {
+        return startNanos;
+    }
+
+    synchronized List<Interval> intervals() {
+        return List.copyOf(intervals);
+    }
+
+    /**
+     * Moves the recorders into the interval histograms and the totals, and
+     * returns the errors and hits since the last call.
+     */
+    private long[] drain() {
+        intervalCorrected = corrected.getIntervalHistogram(intervalCorrected);
+        intervalUncorrected = uncorrected.getIntervalHistogram(intervalUncorrected);
+        long intervalErrors = errors.sumThenReset();
+        long intervalHits = hits.sumThenReset();
+        totalCorrected.add(intervalCorrected);
+        totalUncorrected.add(intervalUncorrected);
+        totalErrors += intervalErrors;
+        totalHits += intervalHits;
+        return new long[] {intervalErrors, intervalHits};
+    }
+
+    private static long micros(long nanos) {
+        return Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), HIGHEST_MICROS);
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    /**
+     * Figures for a stretch of the run ending {@code elapsedSeconds} after the
+     * start; latencies are corrected and in milliseconds. The hit rate is the
+     * share of requests answered from an instance's cache.
+     */
+    record Interval(double elapsedSeconds, long requests, long errors, double throughput, double hitRate,
+                    double p50Ms, double p99Ms, double p999Ms, double maxMs, double uncorrectedP99Ms) {
+
+        static Interval of(double elapsedSeconds, double lengthSeconds, Histogram corrected,
+                           Histogram uncorrected, long errors, long hits) {
+            long requests = corrected.getTotalCount();
+            return new Interval(elapsedSeconds, requests, errors,
+                    lengthSeconds > 0 ? requests / lengthSeconds : 0,
+                    requests > 0 ? (double) hits / requests : 0,
+                    millis(corrected.getValueAtPercentile(50)),
+                    millis(corrected.getValueAtPercentile(99)),
+                    millis(corrected.getValueAtPercentile(99.9)),
+                    millis(corrected.getMaxValue()),
+                    millis(uncorrected.getValueAtPercentile(99)));
+        }
+
+        private static double millis(long micros) {
+            return micros / 1000.0;
+        }
+    }
+}
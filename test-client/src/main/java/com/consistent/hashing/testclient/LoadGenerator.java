@@ -1,16 +1,41 @@
 package com.consistent.hashing.testclient;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestClient;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Open-loop load: requests are sent at a scheduled arrival rate whether or not
+ * earlier ones have completed, each on its own virtual thread, so a slow server
+ * cannot slow the generator down and hide its own latency. Latencies are
+ * corrected for coordinated omission; see {@link LatencyStats}.
+ * <p>
+ * A run is a sequence of {@link LoadPhase}s, and users are drawn from a
+ * {@link KeyDistribution}. Each phase reports its own latencies, cache-hit
+ * rate and requests per instance.
+ */
 @Component
 public class LoadGenerator implements CommandLineRunner {
 
@@ -25,46 +50,195 @@ public class LoadGenerator implements CommandLineRunner {
     @Value("${load.interval-ms:1000}")
     private long intervalMs;
 
+    @Value("${load.rate:0}")
+    private double rate;
+
     @Value("${load.duration-seconds:300}")
     private long durationSeconds;
 
+    @Value("${load.phases:}")
+    private String phases;
+
+    @Value("${load.distribution:sequential}")
+    private String distribution;
+
+    @Value("${load.seed:1}")
+    private long seed;
+
+    @Value("${load.timeout:10s}")
+    private Duration timeout;
+
+    @Value("${load.report-interval:1s}")
+    private Duration reportInterval;
+
+    @Value("${load.output:}")
+    private String output;
+
     @Override
     public void run(String... args) {
-        log.info("Starting load generator: users={}, interval={}ms, duration={}s, target={}",
-                numUsers, intervalMs, durationSeconds, loadBalancerUrl);
-
-        RestClient restClient = RestClient.create();
-        ScheduledExecutorService executor = Executors.newScheduledThreadPool(numUsers);
-
-        for (int i = 0; i < numUsers; i++) {
-            String userId = String.valueOf(i);
-            executor.scheduleAtFixedRate(() -> sendRequest(restClient, userId),
-                    i * 50L, // stagger start times
-                    intervalMs,
-                    TimeUnit.MILLISECONDS);
+        // Without an explicit rate every user sends one request per interval
+        double requestsPerSecond = rate > 0 ? rate : numUsers * 1000.0 / intervalMs;
+        List<LoadPhase> schedule = phases.isBlank()
+                ? List.of(new LoadPhase("steady", Duration.ofSeconds(durationSeconds),
+                        requestsPerSecond, requestsPerSecond))
+                : LoadPhase.parseAll(phases);
+        KeyDistribution keys = KeyDistribution.parse(distribution, numUsers, seed);
+        log.info("Starting load generator: phases={}, users={}, distribution={}, target={}",
+                schedule, numUsers, distribution, loadBalancerUrl);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+        URI uri = URI.create(loadBalancerUrl + "/api/process");
+        long start = System.nanoTime();
+        LatencyStats stats = new LatencyStats(start);
+        List<LatencyStats> phaseStats = new ArrayList<>();
+        long phaseStart = start;
+
+        try (ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+             ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor()) {
+            reporter.scheduleAtFixedRate(() -> report(stats.sample(System.nanoTime())),
+                    reportInterval.toNanos(), reportInterval.toNanos(), TimeUnit.NANOSECONDS);
+            long sequence = 0;
+            for (LoadPhase phase : schedule) {
+                LatencyStats current = new LatencyStats(phaseStart);
+                phaseStats.add(current);
+                log.info("Phase {}: {} at {}-{}/s", phase.name(), phase.duration(), phase.fromRate(), phase.toRate());
+                for (long k = 0; ; k++) {
+                    long offset = phase.offsetNanos(k);
+                    if (offset < 0) {
+                        break;
+                    }
+                    long intended = phaseStart + offset;
+                    // Behind schedule, this sends the overdue requests back to back with their intended times
+                    if (!awaitNanos(intended)) {
+                        break;
+                    }
+                    String userId = keys.next(sequence++);
+                    requests.execute(() -> send(client, uri, userId, intended, stats, current));
+                }
+                phaseStart += phase.duration().toNanos();
+                if (!awaitNanos(phaseStart)) {
+                    break;
+                }
+            }
+            // Closing the executors waits for requests still in flight
         }
 
+        report(stats.sample(System.nanoTime()));
+        LatencyStats.Interval total = stats.total(phaseStart);
+        List<Map<String, Object>> phaseResults = new ArrayList<>();
+        for (int i = 0; i < phaseStats.size(); i++) {
+            long phaseEnd = i + 1 < phaseStats.size() ? phaseStats.get(i + 1).startNanos() : phaseStart;
+            phaseResults.add(summarize(schedule.get(i), phaseStats.get(i), phaseEnd));
+        }
+        log.info("Load generation complete: requests={}, errors={}, throughput={}/s, hitRate={}, p50={}ms, "
+                        + "p99={}ms, p99.9={}ms, max={}ms (uncorrected p99={}ms)",
+                total.requests(), total.errors(), Math.round(total.throughput()), percent(total.hitRate()),
+                total.p50Ms(), total.p99Ms(), total.p999Ms(), total.maxMs(), total.uncorrectedP99Ms());
+        if (!output.isBlank()) {
+            write(Path.of(output), total, phaseResults, stats.intervals());
+        }
+    }
+
+    private static Map<String, Object> summarize(LoadPhase phase, LatencyStats stats, long endNanos) {
+        LatencyStats.Interval total = stats.total(endNanos);
+        log.info("Phase {} complete: requests={}, errors={}, throughput={}/s, hitRate={}, p50={}ms, p99={}ms, "
+                        + "p99.9={}ms, max={}ms, routedTo={}",
+                phase.name(), total.requests(), total.errors(), Math.round(total.throughput()),
+                percent(total.hitRate()), total.p50Ms(), total.p99Ms(), total.p999Ms(), total.maxMs(),
+                stats.routedTo());
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("name", phase.name());
+        result.put("durationSeconds", phase.duration().toMillis() / 1000.0);
+        result.put("fromRate", phase.fromRate());
+        result.put("toRate", phase.toRate());
+        result.put("total", total);
+        result.put("routedTo", stats.routedTo());
+        return result;
+    }
+
+    /**
+     * Parks until {@code deadline}; {@code false} if interrupted first.
+     */
+    private static boolean awaitNanos(long deadline) {
+        for (long wait; (wait = deadline - System.nanoTime()) > 0; ) {
+            LockSupport.parkNanos(wait);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    private void send(HttpClient client, URI uri, String userId, long intendedNanos,
+                      LatencyStats stats, LatencyStats phaseStats) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("X-User-Id", userId)
+                .timeout(timeout)
+                .GET()
+                .build();
+        long sent = System.nanoTime();
+        boolean ok;
+        boolean hit = false;
+        String instance = null;
         try {
-            Thread.sleep(durationSeconds * 1000);
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            ok = response.statusCode() < 400;
+            // A result read back from the API service's disk store was not computed either
+            hit = response.headers().firstValue("X-Cache")
+                    .filter(cache -> cache.equalsIgnoreCase("HIT") || cache.equalsIgnoreCase("STORE")).isPresent();
+            instance = response.headers().firstValue("X-Routed-To").orElse(null);
+            log.debug("User={} status={} instance={}", userId, response.statusCode(), instance);
+        } catch (IOException e) {
+            ok = false;
+            log.debug("Request failed for user={}: {}", userId, e.getMessage());
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+            return;
         }
+        long end = System.nanoTime();
+        stats.record(intendedNanos, sent, end, ok, hit, instance);
+        phaseStats.record(intendedNanos, sent, end, ok, hit, instance);
+    }
+
+    private static void report(LatencyStats.Interval interval) {
+        log.info("t={}s requests={} throughput={}/s errors={} hitRate={} p50={}ms p99={}ms p99.9={}ms max={}ms",
+                Math.round(interval.elapsedSeconds()), interval.requests(), Math.round(interval.throughput()),
+                interval.errors(), percent(interval.hitRate()), interval.p50Ms(), interval.p99Ms(),
+                interval.p999Ms(), interval.maxMs());
+    }
 
-        log.info("Load generation complete, shutting down");
-        executor.shutdown();
+    private static String percent(double share) {
+        return Math.round(share * 1000) / 10.0 + "%";
     }
 
-    private void sendRequest(RestClient restClient, String userId) {
+    /**
+     * Writes the run as JSON: the settings, the totals, each phase and every
+     * interval, so runs can be compared with a script.
+     */
+    private void write(Path path, LatencyStats.Interval total, List<Map<String, Object>> phaseResults,
+                       List<LatencyStats.Interval> intervals) {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("target", loadBalancerUrl);
+        settings.put("users", numUsers);
+        settings.put("distribution", distribution);
+        settings.put("seed", seed);
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("settings", settings);
+        report.put("total", total);
+        report.put("phases", phaseResults);
+        report.put("intervals", intervals);
         try {
-            String response = restClient.get()
-                    .uri(loadBalancerUrl + "/api/process")
-                    .header("X-User-Id", userId)
-                    .retrieve()
-                    .body(String.class);
-
-            log.info("User={} response={}", userId, response);
-        } catch (Exception e) {
-            log.warn("Request failed for user={}: {}", userId, e.getMessage());
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(path.toFile(), report);
+            log.info("Wrote results to {}", path);
+        } catch (IOException e) {
+            log.warn("Failed to write results to {}", path, e);
         }
     }
 }
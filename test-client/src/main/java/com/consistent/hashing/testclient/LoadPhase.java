@@ -0,0 +1,62 @@
+package com.consistent.hashing.testclient;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A stretch of a load run whose arrival rate moves linearly from
+ * {@code fromRate} to {@code toRate} requests per second; equal rates hold it
+ * steady.
+ */
+record LoadPhase(String name, Duration duration, double fromRate, double toRate) {
+
+    LoadPhase {
+        if (duration.isNegative() || duration.isZero() || fromRate < 0 || toRate < 0) {
+            throw new IllegalArgumentException("Invalid load phase " + name + ": " + duration
+                    + " at " + fromRate + "-" + toRate + "/s");
+        }
+    }
+
+    /**
+     * Parses {@code load.phases}, comma-separated {@code name:duration:rate}
+     * or {@code name:duration:from-to} entries, for example
+     * {@code ramp:30s:0-2000,steady:2m:2000,spike:10s:10000,steady:2m:2000}.
+     */
+    static List<LoadPhase> parseAll(String spec) {
+        List<LoadPhase> phases = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Load phase must be name:duration:rate[-rate]: " + entry);
+            }
+            String[] rates = parts[2].split("-");
+            double from = Double.parseDouble(rates[0].trim());
+            double to = rates.length > 1 ? Double.parseDouble(rates[1].trim()) : from;
+            phases.add(new LoadPhase(parts[0].trim(), DurationStyle.detectAndParse(parts[1].trim()), from, to));
+        }
+        return phases;
+    }
+
+    /**
+     * When request {@code k} (from 0) of this phase is due, in nanoseconds from
+     * the phase start, or -1 once the phase is over. Inverts the request count
+     * {@code fromRate * t + (toRate - fromRate) * t^2 / (2 * duration)} so a
+     * ramp has exactly its rate at every instant.
+     */
+    long offsetNanos(long k) {
+        double length = duration.toNanos() / 1e9;
+        double seconds;
+        if (fromRate == toRate) {
+            seconds = fromRate > 0 ? k / fromRate : Double.POSITIVE_INFINITY;
+        } else {
+            double slope = (toRate - fromRate) / length;
+            double discriminant = fromRate * fromRate + 2 * slope * k;
+            seconds = discriminant < 0 ? Double.POSITIVE_INFINITY
+                    : (Math.sqrt(discriminant) - fromRate) / slope;
+        }
+        return seconds < length ? (long) (seconds * 1e9) : -1;
+    }
+}
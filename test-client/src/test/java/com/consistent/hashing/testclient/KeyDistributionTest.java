@@ -0,0 +1,71 @@
+package com.consistent.hashing.testclient;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KeyDistributionTest {
+
+    @Test
+    void zipfFollowsItsExponentOverMillionsOfUsers() {
+        Map<String, Integer> counts = sample(KeyDistribution.parse("zipf:1.0", 5_000_000, 7), 200_000);
+
+        // With exponent 1, user 0 is drawn twice as often as user 1 and ten times as often as user 9
+        double top = counts.get("0");
+        assertThat(counts.get("1") / top).isBetween(0.45, 0.55);
+        assertThat(counts.get("9") / top).isBetween(0.08, 0.12);
+        assertThat(counts.keySet()).allSatisfy(user -> assertThat(Long.parseLong(user)).isBetween(0L, 4_999_999L));
+    }
+
+    @Test
+    void hotspotSendsItsShareToTheHotUsers() {
+        Map<String, Integer> counts = sample(KeyDistribution.parse("hotspot:0.001:0.8", 100_000, 7), 100_000);
+
+        long hot = counts.entrySet().stream()
+                .filter(entry -> Integer.parseInt(entry.getKey()) < 100)
+                .mapToLong(Map.Entry::getValue)
+                .sum();
+        assertThat(hot).isBetween(78_000L, 82_000L);
+    }
+
+    @Test
+    void sameSeedReplaysTheSameUsers() {
+        KeyDistribution first = KeyDistribution.parse("uniform", 1000, 3);
+        KeyDistribution second = KeyDistribution.parse("uniform", 1000, 3);
+
+        assertThat(LongStream.range(0, 100).mapToObj(first::next))
+                .containsExactlyElementsOf(LongStream.range(0, 100).mapToObj(second::next).toList());
+        assertThat(KeyDistribution.parse("sequential", 3, 3).next(4)).isEqualTo("1");
+    }
+
+    @Test
+    void traceIsReplayedInOrder(@TempDir Path dir) throws Exception {
+        Path trace = Files.writeString(dir.resolve("trace.csv"), "# user,timestamp\nalice,1\n\nbob,2\ncarol\n");
+
+        KeyDistribution keys = KeyDistribution.parse("trace:" + trace, 1, 0);
+
+        assertThat(LongStream.range(0, 4).mapToObj(keys::next)).containsExactly("alice", "bob", "carol", "alice");
+    }
+
+    @Test
+    void unknownDistributionIsRejected() {
+        assertThatThrownBy(() -> KeyDistribution.parse("gaussian", 10, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static Map<String, Integer> sample(KeyDistribution keys, int requests) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (long i = 0; i < requests; i++) {
+            counts.merge(keys.next(i), 1, Integer::sum);
+        }
+        return counts;
+    }
+}
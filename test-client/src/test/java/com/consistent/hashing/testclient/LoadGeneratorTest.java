@@ -1,17 +1,21 @@
 package com.consistent.hashing.testclient;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -19,12 +23,17 @@ import static org.assertj.core.api.Assertions.assertThat;
 @SpringBootTest(properties = {
         "load.num-users=1",
         "load.interval-ms=500",
-        "load.duration-seconds=2"
+        "load.duration-seconds=2",
+        "load.timeout=1s"
 })
 class LoadGeneratorTest {
 
     private static MockWebServer mockServer;
 
+    @TempDir
+    static Path tempDir;
+    private static Path output;
+
     @Autowired
     private LoadGenerator loadGenerator;
 
@@ -32,6 +41,7 @@ class LoadGeneratorTest {
     static void startServer() throws IOException {
         mockServer = new MockWebServer();
         mockServer.start();
+        output = tempDir.resolve("results/run.json");
     }
 
     @AfterAll
@@ -42,6 +52,7 @@ class LoadGeneratorTest {
     @DynamicPropertySource
     static void configureProperties(DynamicPropertyRegistry registry) {
         registry.add("load-balancer.url", () -> "http://localhost:" + mockServer.getPort());
+        registry.add("load.output", () -> output.toString());
     }
 
     @Test
@@ -52,7 +63,9 @@ class LoadGeneratorTest {
     @Test
     void sendsRequestsWithCorrectUrlAndHeaders() throws Exception {
         for (int i = 0; i < 10; i++) {
-            mockServer.enqueue(new MockResponse().setBody("{\"status\":\"ok\"}"));
+            mockServer.enqueue(new MockResponse().setBody("{\"status\":\"ok\"}")
+                    .addHeader("X-Routed-To", "3")
+                    .addHeader("X-Cache", "HIT"));
         }
 
         Thread runner = new Thread(() -> loadGenerator.run());
@@ -64,5 +77,16 @@ class LoadGeneratorTest {
         assertThat(request.getHeader("X-User-Id")).isEqualTo("0");
 
         runner.join(5000);
+        assertThat(runner.isAlive()).isFalse();
+
+        // One request per 500ms for 2s, sent on schedule whatever the response time
+        JsonNode report = new ObjectMapper().readTree(output.toFile());
+        assertThat(report.at("/total/requests").asLong()).isEqualTo(4);
+        assertThat(report.at("/total/errors").asLong()).isZero();
+        assertThat(report.at("/total/p99Ms").asDouble()).isPositive();
+        assertThat(report.get("intervals")).isNotEmpty();
+        assertThat(report.at("/phases/0/name").asText()).isEqualTo("steady");
+        assertThat(report.at("/phases/0/total/hitRate").asDouble()).isEqualTo(1.0);
+        assertThat(report.at("/phases/0/routedTo/3").asLong()).isEqualTo(4);
     }
 }
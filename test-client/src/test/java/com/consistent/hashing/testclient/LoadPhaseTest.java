@@ -0,0 +1,50 @@
+package com.consistent.hashing.testclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LoadPhaseTest {
+
+    @Test
+    void parsesScriptedPhases() {
+        List<LoadPhase> phases = LoadPhase.parseAll("ramp:30s:0-2000, steady:2m:2000,spike:500ms:10000");
+
+        assertThat(phases).containsExactly(
+                new LoadPhase("ramp", Duration.ofSeconds(30), 0, 2000),
+                new LoadPhase("steady", Duration.ofMinutes(2), 2000, 2000),
+                new LoadPhase("spike", Duration.ofMillis(500), 10000, 10000));
+    }
+
+    @Test
+    void steadyPhaseSpacesRequestsEvenly() {
+        LoadPhase steady = new LoadPhase("steady", Duration.ofSeconds(1), 4, 4);
+
+        assertThat(LongStream.range(0, 5).map(steady::offsetNanos).toArray())
+                .containsExactly(0L, 250_000_000L, 500_000_000L, 750_000_000L, -1L);
+    }
+
+    @Test
+    void rampSendsTheAreaUnderItsRate() {
+        // 0 to 1000/s over 10s is 5000 requests, a quarter of them in the first half
+        LoadPhase ramp = new LoadPhase("ramp", Duration.ofSeconds(10), 0, 1000);
+        LoadPhase down = new LoadPhase("down", Duration.ofSeconds(10), 1000, 0);
+
+        assertThat(count(ramp)).isBetween(4999L, 5001L);
+        assertThat(count(down)).isBetween(4999L, 5001L);
+        assertThat(ramp.offsetNanos(1250)).isBetween(4_999_000_000L, 5_001_000_000L);
+        assertThat(down.offsetNanos(3750)).isBetween(4_999_000_000L, 5_001_000_000L);
+    }
+
+    private static long count(LoadPhase phase) {
+        long k = 0;
+        while (phase.offsetNanos(k) >= 0) {
+            k++;
+        }
+        return k;
+    }
+}